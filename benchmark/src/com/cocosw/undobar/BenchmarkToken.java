@@ -0,0 +1,35 @@
+package com.cocosw.undobar;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Undo token as an app would define it. Its Parcel methods are never called on the JVM.
+ */
+public class BenchmarkToken implements Parcelable {
+	final long id;
+
+	public BenchmarkToken(final long id) {
+		this.id = id;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(final Parcel dest, final int flags) {
+		dest.writeLong(id);
+	}
+
+	public static final Parcelable.Creator<BenchmarkToken> CREATOR = new Parcelable.Creator<BenchmarkToken>() {
+		public BenchmarkToken createFromParcel(final Parcel source) {
+			return new BenchmarkToken(source.readLong());
+		}
+
+		public BenchmarkToken[] newArray(final int size) {
+			return new BenchmarkToken[size];
+		}
+	};
+}
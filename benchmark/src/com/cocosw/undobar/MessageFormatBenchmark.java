@@ -0,0 +1,48 @@
+package com.cocosw.undobar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message formatting of the resource id show overloads, against String.format.
+ * Run with -prof gc: once warm, format() must report a gc.alloc.rate.norm of 0 B/op. UndoBarEntryPoolBenchmark
+ * fails if formatting on show allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageFormatBenchmark {
+	private static final String TEMPLATE = "%d items deleted";
+
+	private UndoBarMessageFormat mFormat;
+	private long mValue;
+
+	@Setup
+	public void setup() {
+		mFormat = new UndoBarMessageFormat();
+		mValue = 0;
+	}
+
+	@Benchmark
+	public int format() {
+		return mFormat.format(TEMPLATE, mValue++);
+	}
+
+	@Benchmark
+	public String stringFormat() {
+		return String.format(TEMPLATE, mValue++);
+	}
+}
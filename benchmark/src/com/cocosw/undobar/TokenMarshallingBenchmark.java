@@ -0,0 +1,67 @@
+package com.cocosw.undobar;
+
+import android.os.Parcelable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The JVM side of token marshalling: resolving a token's class loader from its saved class name,
+ * and copying the tokens of an entry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenMarshallingBenchmark {
+	private String mClassName;
+	private Parcelable mToken;
+	private UndoBarEntry mEntry;
+
+	@Setup
+	public void setup() {
+		mToken = new BenchmarkToken(1);
+		mClassName = mToken.getClass().getName();
+		mEntry = new UndoBarEntry(new UndoBarStyle(1, 2), "Message", false, false, mToken);
+		for(int i = 0; i < 15; i++)
+			mEntry.merge("Message", false, false, new BenchmarkToken(i));
+	}
+
+	/**
+	 * What readToken() does for every inline token.
+	 */
+	@Benchmark
+	public ClassLoader classForName() throws ClassNotFoundException {
+		return Class.forName(mClassName).getClassLoader();
+	}
+
+	/**
+	 * Baseline: the class loader of a class that is already known.
+	 */
+	@Benchmark
+	public ClassLoader knownClass() {
+		return mToken.getClass().getClassLoader();
+	}
+
+	@Benchmark
+	public String className() {
+		return mToken.getClass().getName();
+	}
+
+	@Benchmark
+	public Parcelable[] entryTokens() {
+		return mEntry.tokens();
+	}
+}
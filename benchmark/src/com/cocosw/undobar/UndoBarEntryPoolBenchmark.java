@@ -0,0 +1,105 @@
+package com.cocosw.undobar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry and queue reuse across a show and hide: obtain an entry, queue it, take it back and recycle it.
+ * Shows with a resource message also format it into the reused char buffer, as binding the bar does.
+ *
+ * Once warmed up this must not allocate, which the tear down checks with the thread's allocation counter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UndoBarEntryPoolBenchmark {
+	private static final int CHECKED_CYCLES = 10000;
+	// Stands for the string resource, only its id is kept on the entry.
+	private static final int MESSAGE_RES = 1;
+	private static final String TEMPLATE = "%d items deleted";
+
+	private UndoBarQueue mQueue;
+	private UndoBarStyle mStyle;
+	private BenchmarkToken mToken;
+	private UndoBarMessageFormat mFormat;
+	private long mCount;
+
+	@Setup
+	public void setup() {
+		mQueue = new UndoBarQueue(UndoBarQueue.DEFAULT_CAPACITY);
+		mStyle = new UndoBarStyle(1, 2);
+		mToken = new BenchmarkToken(1);
+		mFormat = new UndoBarMessageFormat();
+		mCount = 0;
+	}
+
+	@Benchmark
+	public UndoBarEntry showHide() {
+		final UndoBarEntry entry = UndoBarEntry.obtain(mStyle, "Message", false, false, mToken);
+		mQueue.offer(entry);
+		final UndoBarEntry shown = mQueue.poll();
+		shown.recycle();
+		return shown;
+	}
+
+	@Benchmark
+	public int showResourceHide() {
+		final UndoBarEntry entry = UndoBarEntry.obtain(mStyle, null, false, false, mToken);
+		entry.setMessageRes(MESSAGE_RES, false, mCount++);
+		mQueue.offer(entry);
+		final UndoBarEntry shown = mQueue.poll();
+		final int length = mFormat.format(TEMPLATE, shown.messageArg);
+		shown.recycle();
+		return length;
+	}
+
+	@Benchmark
+	public UndoBarEntry showMergeHide() {
+		final UndoBarEntry entry = UndoBarEntry.obtain(mStyle, "Message", false, false, mToken);
+		mQueue.offer(entry);
+		for(int i = 0; i < 8; i++)
+			mQueue.find(mStyle).merge("Message", false, false, mToken);
+		final UndoBarEntry shown = mQueue.poll();
+		shown.recycle();
+		return shown;
+	}
+
+	@TearDown(Level.Trial)
+	public void checkNoAllocation() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean))
+			return;
+
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+		final long thread = Thread.currentThread().getId();
+		// What reading the counter allocates itself.
+		final long overhead = -threads.getThreadAllocatedBytes(thread) + threads.getThreadAllocatedBytes(thread);
+
+		final long start = threads.getThreadAllocatedBytes(thread);
+		for(int i = 0; i < CHECKED_CYCLES; i++) {
+			showHide();
+			showResourceHide();
+			showMergeHide();
+		}
+		final long allocated = threads.getThreadAllocatedBytes(thread) - start - overhead;
+		if(allocated > 0)
+			throw new IllegalStateException("Show and hide allocated " + allocated + " bytes over " + CHECKED_CYCLES +
+					" cycles, entries or queue slots are not reused.");
+	}
+}
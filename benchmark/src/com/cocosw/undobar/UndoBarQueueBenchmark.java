@@ -0,0 +1,75 @@
+package com.cocosw.undobar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pending bar queue and entry coalescing, as done by every show while a bar is visible.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UndoBarQueueBenchmark {
+	private UndoBarQueue mQueue;
+	private UndoBarQueue mFullQueue;
+	private UndoBarEntry mEntry;
+	private UndoBarEntry mHighEntry;
+	private UndoBarStyle mMissingStyle;
+	private BenchmarkToken mToken;
+
+	@Setup
+	public void setup() {
+		mQueue = new UndoBarQueue(UndoBarQueue.DEFAULT_CAPACITY);
+		mFullQueue = new UndoBarQueue(UndoBarQueue.DEFAULT_CAPACITY);
+		for(int i = 0; i < UndoBarQueue.DEFAULT_CAPACITY; i++)
+			mFullQueue.offer(new UndoBarEntry(new UndoBarStyle(i, i), "Message", false, false, null));
+
+		mToken = new BenchmarkToken(1);
+		mEntry = new UndoBarEntry(new UndoBarStyle(1, 2), "Message", false, false, mToken);
+		mHighEntry = new UndoBarEntry(new UndoBarStyle(1, 2).setPriority(UndoBarStyle.PRIORITY_HIGH), "Message",
+				false, false, mToken);
+		mMissingStyle = new UndoBarStyle(-1, -1);
+	}
+
+	@Benchmark
+	public UndoBarEntry offerPoll() {
+		mQueue.offer(mEntry);
+		return mQueue.poll();
+	}
+
+	@Benchmark
+	public UndoBarEntry findMissFull() {
+		return mFullQueue.find(mMissingStyle);
+	}
+
+	@Benchmark
+	public UndoBarEntry offerFirstFull() {
+		// Drops the last entry, then put it back so the queue stays full.
+		final UndoBarEntry dropped = mFullQueue.offerFirst(mHighEntry);
+		mFullQueue.poll();
+		mFullQueue.offer(dropped);
+		return dropped;
+	}
+
+	@Benchmark
+	public UndoBarEntry coalesce() {
+		final UndoBarEntry entry = UndoBarEntry.obtain(mEntry.style, "Message", false, false, mToken);
+		for(int i = 0; i < 8; i++)
+			entry.merge("Message", false, false, mToken);
+		entry.recycle();
+		return entry;
+	}
+}
@@ -0,0 +1,65 @@
+package com.cocosw.undobar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Style comparisons done by setStyle() and the queue, and the style cache lookup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UndoBarStyleBenchmark {
+	private UndoBarStyle mStyle;
+	private UndoBarStyle mEqualStyle;
+	private UndoBarStyle mOtherStyle;
+	private final HashMap<UndoBarStyle, Object> mCache = new HashMap<UndoBarStyle, Object>();
+
+	@Setup
+	public void setup() {
+		mStyle = new UndoBarStyle(1, 2, 3, 4, 5000);
+		mEqualStyle = new UndoBarStyle(1, 2, 3, 4, 5000);
+		mOtherStyle = new UndoBarStyle(1, 2, 3, 4, 5000).setPriority(UndoBarStyle.PRIORITY_HIGH);
+		mCache.put(mStyle, new Object());
+		mCache.put(mOtherStyle, new Object());
+	}
+
+	@Benchmark
+	public boolean equalsSame() {
+		return mStyle.equals(mStyle);
+	}
+
+	@Benchmark
+	public boolean equalsEqual() {
+		return mStyle.equals(mEqualStyle);
+	}
+
+	@Benchmark
+	public boolean equalsDifferent() {
+		return mStyle.equals(mOtherStyle);
+	}
+
+	@Benchmark
+	public int hashCodeOf() {
+		return mEqualStyle.hashCode();
+	}
+
+	@Benchmark
+	public Object cacheLookup() {
+		return mCache.get(mEqualStyle);
+	}
+}
@@ -0,0 +1,67 @@
+package com.cocosw.undobar;
+
+import android.os.Parcelable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Undo history ring buffer, pushed on every show and popped on every undo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UndoHistoryBenchmark {
+	@Param({"8", "64"})
+	public int capacity;
+
+	private UndoHistory mHistory;
+	private UndoHistory mFullHistory;
+	private BenchmarkToken mToken;
+	private BenchmarkToken mMissingToken;
+
+	@Setup
+	public void setup() {
+		mToken = new BenchmarkToken(1);
+		mMissingToken = new BenchmarkToken(-1);
+		mHistory = new UndoHistory(capacity);
+		mFullHistory = new UndoHistory(capacity);
+		for(int i = 0; i < capacity; i++)
+			mFullHistory.push(new BenchmarkToken(i));
+	}
+
+	@Benchmark
+	public Parcelable pushPop() {
+		mHistory.push(mToken);
+		return mHistory.pop();
+	}
+
+	@Benchmark
+	public Parcelable pushFull() {
+		return mFullHistory.push(mToken);
+	}
+
+	@Benchmark
+	public boolean containsMiss() {
+		return mFullHistory.contains(mMissingToken);
+	}
+
+	@Benchmark
+	public Parcelable[] toArray() {
+		return mFullHistory.toArray();
+	}
+}
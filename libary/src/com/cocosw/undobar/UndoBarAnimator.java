@@ -0,0 +1,129 @@
+package com.cocosw.undobar;
+
+import android.animation.Animator;
+import android.animation.ValueAnimator;
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.View;
+
+/**
+ * Interruptible show and hide animation of the undo bar, built on property animation.
+ *
+ * The bar slides and fades between hidden (0) and shown (1). Changing direction mid-way continues from the
+ * current alpha and position, and the bar is drawn from a hardware layer while it moves.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+final class UndoBarAnimator implements ValueAnimator.AnimatorUpdateListener, Animator.AnimatorListener {
+	private static final long DURATION = 250;
+	// Slide distance used while the bar has not been laid out yet.
+	private static final int DEFAULT_DISTANCE_DIP = 48;
+
+	private final UndoBarController mController;
+	private final ValueAnimator mAnimator = ValueAnimator.ofFloat(0f, 1f);
+
+	private float mFraction = 0f;
+	private boolean mShowing = false;
+	private boolean mCanceled = false;
+
+	UndoBarAnimator(final UndoBarController controller) {
+		mController = controller;
+		mAnimator.addUpdateListener(this);
+		mAnimator.addListener(this);
+	}
+
+	boolean isRunning() {
+		return mAnimator.isRunning();
+	}
+
+	void show() {
+		animateTo(true);
+	}
+
+	void hide() {
+		animateTo(false);
+	}
+
+	/**
+	 * Stop animating and jump to the shown or hidden state.
+	 */
+	void jumpTo(final boolean shown) {
+		mShowing = shown;
+		mAnimator.cancel();
+		mFraction = shown ? 1f : 0f;
+		apply();
+	}
+
+	private void animateTo(final boolean show) {
+		final float target = show ? 1f : 0f;
+		mShowing = show;
+		mAnimator.cancel();
+		if(mFraction == target) {
+			apply();
+			if(show)
+				mController.onShowAnimationEnd();
+			else
+				mController.onHideAnimationEnd();
+			return;
+		}
+
+		final View bar = getBar();
+		if(bar != null && bar.isHardwareAccelerated())
+			bar.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+
+		mAnimator.setFloatValues(mFraction, target);
+		mAnimator.setDuration((long)(DURATION * Math.abs(target - mFraction)));
+		apply();
+		mAnimator.start();
+	}
+
+	private View getBar() {
+		return mController.getChildCount() > 0 ? mController.getChildAt(0) : null;
+	}
+
+	private void apply() {
+		final View bar = getBar();
+		if(bar != null) {
+			final int distance = bar.getHeight() > 0 ? bar.getHeight() :
+					(int)(DEFAULT_DISTANCE_DIP * bar.getResources().getDisplayMetrics().density);
+			bar.setAlpha(mFraction);
+			bar.setTranslationY((1f - mFraction) * distance);
+		}
+	}
+
+	@Override
+	public void onAnimationUpdate(final ValueAnimator animation) {
+		mFraction = (Float)animation.getAnimatedValue();
+		apply();
+	}
+
+	@Override
+	public void onAnimationStart(final Animator animation) {
+		mCanceled = false;
+	}
+
+	@Override
+	public void onAnimationCancel(final Animator animation) {
+		mCanceled = true;
+	}
+
+	@Override
+	public void onAnimationEnd(final Animator animation) {
+		final View bar = getBar();
+		if(bar != null && bar.getLayerType() != View.LAYER_TYPE_NONE)
+			bar.setLayerType(View.LAYER_TYPE_NONE, null);
+
+		// Interrupted animations hand over to the next one.
+		if(mCanceled) {
+			mCanceled = false;
+			return;
+		}
+		if(mShowing)
+			mController.onShowAnimationEnd();
+		else
+			mController.onHideAnimationEnd();
+	}
+
+	@Override
+	public void onAnimationRepeat(final Animator animation) {
+	}
+}
@@ -0,0 +1,114 @@
+package com.cocosw.undobar;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
+import android.view.ContextThemeWrapper;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+/**
+ * A single controller for the whole application, moved into whichever Activity is resumed.
+ *
+ * The bar is inflated once against the application's theme, and its visible and pending bars go along with it
+ * from screen to screen, so an undo shown right before startActivity() or finish() stays available.
+ * Activities set up with their own controller are left out. Main thread only.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+final class UndoBarAppScope implements Application.ActivityLifecycleCallbacks {
+	private static UndoBarAppScope sInstance;
+
+	private final UndoBarController mController;
+	// Cleared once paused, so no Activity is held past its onPause().
+	private Activity mResumed;
+
+	private UndoBarAppScope(final Application application) {
+		final int theme = application.getApplicationInfo().theme;
+		mController = new UndoBarController(new ContextThemeWrapper(application,
+				theme != 0 ? theme : android.R.style.Theme_DeviceDefault), null);
+		mController.mApplicationScoped = true;
+		// It outlives the Activities, so it must not be restored from one of their saved states.
+		mController.setSaveEnabled(false);
+	}
+
+	static UndoBarController install(final Application application) {
+		if(sInstance == null) {
+			sInstance = new UndoBarAppScope(application);
+			application.registerActivityLifecycleCallbacks(sInstance);
+		}
+		return sInstance.mController;
+	}
+
+	/**
+	 * @return the application's controller, moved into the Activity if it is the resumed one, or null if there is
+	 * none or the Activity has its own.
+	 */
+	static UndoBarController attachTo(final Activity activity) {
+		return sInstance != null ? sInstance.attach(activity) : null;
+	}
+
+	private UndoBarController attach(final Activity activity) {
+		if(hasOwnController(activity))
+			return null;
+		// Any other is paused, going away or not shown yet: the bar moves into whichever is resumed next.
+		return activity == mResumed ? moveTo(activity) : mController;
+	}
+
+	private static boolean hasOwnController(final Activity activity) {
+		final UndoBarController undo = UndoBarRegistry.get(activity);
+		return undo != null && !undo.mApplicationScoped;
+	}
+
+	private UndoBarController moveTo(final Activity activity) {
+		final ViewGroup decorView = (ViewGroup)activity.getWindow().getDecorView();
+		final ViewGroup contentView = (ViewGroup)decorView.findViewById(android.R.id.content);
+		final ViewGroup container = contentView != null ? contentView : decorView;
+
+		final ViewParent parent = mController.getParent();
+		if(parent != container) {
+			if(parent != null)
+				((ViewGroup)parent).removeView(mController);
+			container.addView(mController);
+		}
+		UndoBarRegistry.put(activity, mController);
+		return mController;
+	}
+
+	@Override
+	public void onActivityResumed(final Activity activity) {
+		mResumed = activity;
+		if(!hasOwnController(activity))
+			moveTo(activity);
+	}
+
+	@Override
+	public void onActivityDestroyed(final Activity activity) {
+		// Don't keep a destroyed window alive through the bar.
+		if(mController.getParent() != null && mController.getRootView() == activity.getWindow().getDecorView())
+			((ViewGroup)mController.getParent()).removeView(mController);
+	}
+
+	@Override
+	public void onActivityCreated(final Activity activity, final Bundle savedInstanceState) {
+	}
+
+	@Override
+	public void onActivityStarted(final Activity activity) {
+	}
+
+	@Override
+	public void onActivityPaused(final Activity activity) {
+		if(mResumed == activity)
+			mResumed = null;
+	}
+
+	@Override
+	public void onActivityStopped(final Activity activity) {
+	}
+
+	@Override
+	public void onActivitySaveInstanceState(final Activity activity, final Bundle outState) {
+	}
+}
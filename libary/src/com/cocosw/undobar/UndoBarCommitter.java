@@ -0,0 +1,121 @@
+package com.cocosw.undobar;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Collects the tokens of bars that can no longer be undone and hands them to the
+ * {@link UndoBarController.CommitListener} in batches, on the caller-supplied executor.
+ *
+ * Tokens are only dropped from the token store and resolved in the journal once the listener returns,
+ * so a commit cut short by the process dying is recovered on the next launch.
+ */
+final class UndoBarCommitter implements Runnable {
+	private final UndoBarController.CommitListener mListener;
+	private final Executor mExecutor;
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+	private final Object mLock = new Object();
+	private final ArrayList<Parcelable> mTokens = new ArrayList<Parcelable>();
+	private boolean mScheduled = false;
+	// Array of the last batch, reused by the next one of the same size.
+	private Parcelable[] mBatch;
+
+	// Committed tokens waiting to be released on the main thread, swapped with the ones being released.
+	private ArrayList<Parcelable> mCommitted = new ArrayList<Parcelable>();
+	private ArrayList<Parcelable> mReleasing = new ArrayList<Parcelable>();
+	private boolean mReleasePosted = false;
+	private final Runnable mRelease = new Runnable() {
+		@Override
+		public void run() {
+			final ArrayList<Parcelable> tokens;
+			synchronized(mLock) {
+				tokens = mCommitted;
+				mCommitted = mReleasing;
+				mReleasing = tokens;
+				mReleasePosted = false;
+			}
+			// The journal is main thread only.
+			for(int i = 0; i < tokens.size(); i++)
+				UndoBarEntry.release(tokens.get(i));
+			tokens.clear();
+		}
+	};
+
+	UndoBarCommitter(final UndoBarController.CommitListener listener, final Executor executor) {
+		if(listener == null || executor == null)
+			throw new IllegalArgumentException("Commit listener and executor must not be null.");
+		mListener = listener;
+		mExecutor = executor;
+	}
+
+	/**
+	 * Add the tokens of an expired bar to the next batch. Call {@link #flush()} once done adding.
+	 */
+	void add(final UndoBarEntry entry) {
+		final int count = entry.tokenCount();
+		if(count == 0)
+			return;
+
+		synchronized(mLock) {
+			for(int i = 0; i < count; i++)
+				mTokens.add(entry.tokenAt(i));
+		}
+	}
+
+	/**
+	 * Add a single expired token to the next batch. Call {@link #flush()} once done adding.
+	 */
+	void add(final Parcelable token) {
+		synchronized(mLock) {
+			mTokens.add(token);
+		}
+	}
+
+	/**
+	 * Schedule the batch on the executor, unless it is already waiting to run.
+	 * Tokens added before it runs join the same batch.
+	 */
+	void flush() {
+		synchronized(mLock) {
+			if(mScheduled || mTokens.isEmpty())
+				return;
+			mScheduled = true;
+		}
+		mExecutor.execute(this);
+	}
+
+	@Override
+	public void run() {
+		Parcelable[] tokens;
+		synchronized(mLock) {
+			final int count = mTokens.size();
+			tokens = mBatch;
+			// Taken while in use, in case the executor runs batches concurrently.
+			mBatch = null;
+			if(tokens == null || tokens.length != count)
+				tokens = new Parcelable[count];
+			mTokens.toArray(tokens);
+			mTokens.clear();
+			mScheduled = false;
+		}
+		mListener.onCommit(tokens);
+
+		final boolean post;
+		synchronized(mLock) {
+			for(int i = 0; i < tokens.length; i++) {
+				mCommitted.add(tokens[i]);
+				tokens[i] = null;
+			}
+			mBatch = tokens;
+			post = !mReleasePosted;
+			mReleasePosted = true;
+		}
+		if(post)
+			mMainHandler.post(mRelease);
+	}
+}
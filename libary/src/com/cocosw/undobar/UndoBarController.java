@@ -16,70 +16,293 @@
 
 package com.cocosw.undobar;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
+import android.app.Application;
 import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.AttributeSet;
+import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.FrameLayout;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
 public class UndoBarController extends FrameLayout {
 	/*
 	 * Default UndoBar styles.
 	 */
 	public static UndoBarStyle UNDOSTYLE = new UndoBarStyle(R.drawable.ic_undobar_undo, R.string.undo);
-	public static UndoBarStyle RETRYSTYLE = new UndoBarStyle(R.drawable.ic_retry, R.string.retry, -1);
-	public static UndoBarStyle MESSAGESTYLE = new UndoBarStyle(-1, -1, 5000);
+	// Never hides by itself while attempts remain, see scheduleHide().
+	public static UndoBarStyle RETRYSTYLE = new UndoBarStyle(R.drawable.ic_retry, R.string.retry,
+			UndoBarStyle.IGNORE_RESOURCE, -1L).setPriority(UndoBarStyle.PRIORITY_HIGH);
+	public static UndoBarStyle MESSAGESTYLE = new UndoBarStyle(-1, -1, 5000)
+			.setPriority(UndoBarStyle.PRIORITY_LOW);
+
+	/**
+	 * Progress value of a bar showing no progress.
+	 */
+	public static final int NO_PROGRESS = -1;
+	// Frame interval used to throttle updates before Jelly Bean.
+	private static final long FRAME_DELAY = 16;
+
+	private static boolean sLazyInflation = false;
+	private static boolean sFlatRendering = false;
+	private static UndoTokenStore sTokenStore;
+	private static UndoJournal sJournal;
+	private static UndoBarMetrics sMetrics;
 
 	public interface UndoListener {
 		void onUndo(Parcelable token);
 	}
 
+	/**
+	 * Listener that receives all tokens of a coalesced undo bar in a single call.
+	 * Plain {@link UndoListener}s get one {@link UndoListener#onUndo(Parcelable)} call per token instead,
+	 * most recent first.
+	 */
+	public interface MultiUndoListener extends UndoListener {
+		void onUndoAll(Parcelable[] tokens);
+	}
+
+	/**
+	 * Work retried by a bar shown with {@link #showRetry(CharSequence, RetryTask)}.
+	 */
+	public interface RetryTask {
+		/**
+		 * Called on a background thread. Throw to retry later.
+		 */
+		void run() throws Exception;
+	}
+
+	/**
+	 * Listener notified once bars can no longer be undone, i.e. they timed out or were dismissed, or their container
+	 * was detached for good without saving them, like a removed Fragment. Always called on the commit executor,
+	 * never on the main thread.
+	 */
+	public interface CommitListener {
+		/**
+		 * @param tokens The tokens of every bar that expired since the previous call, oldest first. The array is
+		 *               reused once the call returns, copy it to keep the tokens.
+		 */
+		void onCommit(Parcelable[] tokens);
+	}
+
 	protected TextView mMessageView;
 	protected TextView mButton;
+	// Optional, layouts without an undobar_progress view can't show progress.
+	protected ProgressBar mProgressView;
+	// Single view drawing the whole bar, in place of the views above.
+	private UndoBarView mFlatView;
+	// Drawables this controller created for each style it showed.
+	final UndoBarStyleCache.Drawables mStyleDrawables = new UndoBarStyleCache.Drawables();
 
 	protected UndoListener mUndoListener;
+	private UndoBarCommitter mCommitter;
 	protected UndoBarStyle mStyle;
 
 	protected Parcelable mUndoToken;
 
+	// Visible bar, and bars waiting for it to go away.
+	private UndoBarEntry mCurrent;
+	private final UndoBarQueue mQueue = new UndoBarQueue(UndoBarQueue.DEFAULT_CAPACITY);
+	// Style given to the next bars shown, which may differ from the visible one.
+	private UndoBarStyle mNextStyle;
+	private int mCoalescedMessageRes = UndoBarStyle.IGNORE_RESOURCE;
+	private final UndoBarMessageFormat mMessageFormat = new UndoBarMessageFormat();
+	// Repeats of the visible bar within this window only extend it.
+	private long mDedupWindow = 0;
+	private HashMap<UndoBarStyle, UndoBarRateLimit> mRateLimits;
+	// Automatic retries of a retry bar, visible or pending.
+	private UndoBarRetry mRetry;
+	// Tokens that can still be undone one at a time, most recent first.
+	private UndoHistory mHistory;
+	private boolean mSaveHistory = false;
+	// History restored before setUndoHistory() was called, kept for it.
+	private Parcelable[] mRestoredHistory;
+	// Whether the state was saved since the controller was attached, so a detached controller comes back with it.
+	private boolean mStateSaved = false;
+
 	private Animation mFadeInAnimation;
 	private Animation mFadeOutAnimation;
+	// Built-in property animation, used when the hooks return no Animation.
+	private UndoBarAnimator mAnimator;
+	private UndoBarSwipe mSwipe;
+	private boolean mSwipeToDismiss = true;
 
+	private boolean mInflated = false;
 	private boolean mImmediate = false;
 	private boolean mDismissOnOutsideTouch = false;
 
-	// Used to control whether touches were in or out the undo bar.
-	private boolean mDispatchedTouchEvent = false;
-
-	private final Handler mHideHandler = new Handler();
-	private final Runnable mHideRunnable = new Runnable() {
-		@Override
-		public void run() {
-			hideUndoBar(false);
-		}
-	};
+	// Sits on top of the window while a bar dismissible by outside touches is visible.
+	private OutsideTouchInterceptor mOutsideTouchInterceptor;
+	private final int[] mLocation = new int[2];
+	// The bar's untranslated bounds on screen, valid until the next layout or scroll in the window.
+	private final Rect mBarBounds = new Rect();
+	private boolean mBarBoundsValid = false;
+
+	private final Handler mHandler = new Handler();
+	// Slot in the shared hide timer, or -1.
+	int mTimerIndex = -1;
+	// Moved between Activities by UndoBarAppScope rather than owned by one.
+	boolean mApplicationScoped = false;
+	// Created by ensureView(), and so free to be pooled once its container is gone.
+	private boolean mPoolable = false;
+
+	// Latest update, applied on the next frame. A null message keeps the current one.
+	private CharSequence mPendingMessage;
+	private int mPendingProgress = NO_PROGRESS;
+	private boolean mUpdateScheduled = false;
+
+	// When the visible bar was asked to show, until it is first drawn and fully visible, or 0.
+	private long mFirstFrameStart = 0;
+	private long mVisibleStart = 0;
 
 	public UndoBarController(final Context context, final AttributeSet attrs) {
 		super(context, attrs);
 		// Important to find it in the view tree and to save and restore instance state.
 		setId(R.id._undobar_controller);
 
-		inflateUndoBar(context);
+		if(!sLazyInflation)
+			ensureInflated();
 
 		// Start hidden.
 		setVisibility(View.GONE);
 	}
 
+	/**
+	 * Defer inflating the undo bar layout of controllers created from now on until they first show a bar.
+	 * Until then a controller is an empty placeholder, and the styles it is given are applied when it inflates.
+	 * Usually called inside Application's onCreate() method.
+	 *
+	 * @param lazy Whether to inflate lazily.
+	 */
+	public static void setLazyInflation(final boolean lazy) {
+		sLazyInflation = lazy;
+	}
+
+	/**
+	 * Draw the bars of controllers inflated from now on with a single view, instead of inflating the undobar
+	 * layout. It looks the same and honours {@link UndoBarStyle}s, but measures, lays out and draws in one pass.
+	 * {@link UndoBarKitKatController} draws its KitKat look the same way. Other subclasses inflating their own
+	 * layout are not affected.
+	 *
+	 * @param flat Whether to use the single view renderer.
+	 */
+	public static void setFlatRendering(final boolean flat) {
+		sFlatRendering = flat;
+	}
+
+	/**
+	 * Keep undo tokens in a store instead of the saved instance state, which then only carries their ids.
+	 * Must be set before any state is restored, usually inside Application's onCreate() method.
+	 *
+	 * @param store {@link UndoTokenStore}, or null to save tokens inline.
+	 */
+	public static void setTokenStore(final UndoTokenStore store) {
+		sTokenStore = store;
+	}
+
+	static UndoTokenStore getTokenStore() {
+		return sTokenStore;
+	}
+
+	/**
+	 * Journal pending undo tokens to disk, so they can be recovered if the process is killed while their bar is
+	 * visible. See {@link UndoJournal#recover(UndoJournal.RecoveryListener)}.
+	 *
+	 * @param journal {@link UndoJournal}, or null to stop journaling.
+	 */
+	public static void setJournal(final UndoJournal journal) {
+		sJournal = journal;
+	}
+
+	static UndoJournal getJournal() {
+		return sJournal;
+	}
+
+	/**
+	 * Report lifecycle and latency events of all undo bars, e.g. to an {@link UndoBarStats}.
+	 *
+	 * @param metrics {@link UndoBarMetrics}, or null to stop reporting.
+	 */
+	public static void setMetrics(final UndoBarMetrics metrics) {
+		sMetrics = metrics;
+	}
+
+	/**
+	 * Add the single view drawing the bar, if flat rendering is on.
+	 *
+	 * @param kitKat Whether to draw the undobar_kitkat layout rather than the undobar one.
+	 *
+	 * @return whether it was added.
+	 */
+	boolean inflateFlatView(final Context context, final boolean kitKat) {
+		if(!sFlatRendering)
+			return false;
+
+		mFlatView = new UndoBarView(context, this, kitKat);
+		final float density = getResources().getDisplayMetrics().density;
+		final LayoutParams params;
+		if(kitKat) {
+			params = new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT,
+					Gravity.CENTER_HORIZONTAL | Gravity.BOTTOM);
+			final int margin = (int)(32 * density + 0.5f);
+			params.setMargins(margin, 0, margin, (int)(30 * density + 0.5f));
+		}
+		else {
+			params = new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT, Gravity.BOTTOM);
+			final int margin = (int)(4 * density + 0.5f);
+			params.setMargins(margin, 0, margin, margin);
+		}
+		addView(mFlatView, params);
+		return true;
+	}
+
+	/**
+	 * @return whether the bar is drawn by a single view, see {@link #inflateFlatView(Context, boolean)}.
+	 */
+	boolean isFlat() {
+		return mFlatView != null;
+	}
+
+	private void ensureInflated() {
+		if(!mInflated) {
+			mInflated = true;
+			final long start = sMetrics != null ? System.nanoTime() : 0;
+			inflateUndoBar(getContext());
+			if(sMetrics != null)
+				sMetrics.onInflate(System.nanoTime() - start);
+			mProgressView = (ProgressBar) findViewById(R.id.undobar_progress);
+
+			// Apply the style set while this was a placeholder.
+			if(mStyle != null)
+				applyStyleTimed(mStyle);
+		}
+	}
+
 	protected void inflateUndoBar(Context context) {
+		if(inflateFlatView(context, false))
+			return;
+
 		LayoutInflater.from(context).inflate(R.layout.undobar, this, true);
 		mMessageView = (TextView) findViewById(R.id.undobar_message);
 		mButton = (TextView) findViewById(R.id.undobar_button);
@@ -87,199 +310,1348 @@ public class UndoBarController extends FrameLayout {
 				new View.OnClickListener() {
 					@Override
 					public void onClick(final View view) {
-						if (mUndoListener != null) {
-							mUndoListener.onUndo(mUndoToken);
-						}
-						hideUndoBar(false);
+						performUndo();
 					}
 				});
 	}
 
+	/**
+	 * Hide the visible bar and hand its tokens to the listener.
+	 * With an {@link UndoHistory}, only the bar's most recent token is undone and the bar stays while it has older
+	 * ones in the history.
+	 */
+	protected void performUndo() {
+		if(mRetry != null && mRetry.entry == mCurrent) {
+			mRetry.retryNow();
+			// Attempts remain again, the bar stays.
+			scheduleHide();
+			return;
+		}
+
+		// The button only undoes tokens of its own bar.
+		if(mHistory != null && mCurrent != null) {
+			final Parcelable token = findHistoryToken(mCurrent);
+			if(token != null) {
+				mHistory.remove(token);
+				undo(token);
+				return;
+			}
+		}
+
+		final UndoBarEntry entry = mCurrent;
+		final Parcelable token = mUndoToken;
+		// Undone bars are not committed.
+		if(entry != null)
+			onDismiss(UndoBarMetrics.DISMISS_UNDO);
+		mCurrent = null;
+		hideUndoBar(false);
+
+		if(entry != null)
+			entry.release();
+
+		if(mUndoListener != null) {
+			if(entry == null || entry.tokenCount() == 0) {
+				mUndoListener.onUndo(token);
+			}
+			else if(mUndoListener instanceof MultiUndoListener) {
+				((MultiUndoListener)mUndoListener).onUndoAll(entry.tokens());
+			}
+			else {
+				for(int i = entry.tokenCount() - 1; i >= 0; i--)
+					mUndoListener.onUndo(entry.tokenAt(i));
+			}
+		}
+
+		if(entry != null)
+			entry.recycle();
+	}
+
+	/**
+	 * Undo the most recent token of the {@link UndoHistory}, whether its bar is visible, pending or already gone.
+	 *
+	 * @return whether there was a token to undo.
+	 */
+	public boolean undoLast() {
+		if(mHistory == null || mHistory.isEmpty())
+			return false;
+
+		undo(mHistory.pop());
+		return true;
+	}
+
+	/**
+	 * Undo a token taken out of the history, and take it out of its bar too.
+	 */
+	private void undo(final Parcelable token) {
+		final UndoBarEntry entry = removeFromEntries(token);
+		UndoBarEntry.release(token);
+
+		if(entry != null && entry == mCurrent) {
+			if(findHistoryToken(entry) != null) {
+				// Give the user the full duration to undo the next one.
+				bindEntry(entry);
+				scheduleHide();
+			}
+			else {
+				hideUndoBar(false, UndoBarMetrics.DISMISS_UNDO);
+			}
+		}
+		else if(entry != null && entry.tokenCount() == 0) {
+			// Nothing left to show it for.
+			mQueue.remove(entry);
+			onDismiss(UndoBarMetrics.DISMISS_UNDO);
+			commit(entry);
+		}
+
+		if(mUndoListener != null)
+			mUndoListener.onUndo(token);
+	}
+
+	/**
+	 * Take a token out of the visible or pending bar holding it.
+	 *
+	 * @return the bar that held it, or null.
+	 */
+	private UndoBarEntry removeFromEntries(final Parcelable token) {
+		UndoBarEntry entry = null;
+		if(mCurrent != null && mCurrent.removeToken(token)) {
+			entry = mCurrent;
+		}
+		else {
+			for(int i = 0; i < mQueue.size(); i++) {
+				if(mQueue.get(i).removeToken(token)) {
+					entry = mQueue.get(i);
+					break;
+				}
+			}
+		}
+
+		if(entry != null && entry.count > 1)
+			entry.count--;
+		if(entry != null && entry == mCurrent)
+			mUndoToken = getUndoToken(entry);
+		return entry;
+	}
+
+	/**
+	 * @return the most recent token of a bar that is still in the history, or null.
+	 */
+	private Parcelable findHistoryToken(final UndoBarEntry entry) {
+		if(mHistory == null)
+			return null;
+
+		for(int i = entry.tokenCount() - 1; i >= 0; i--) {
+			if(mHistory.contains(entry.tokenAt(i)))
+				return entry.tokenAt(i);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the token a bar's button undoes.
+	 */
+	private Parcelable getUndoToken(final UndoBarEntry entry) {
+		final Parcelable token = findHistoryToken(entry);
+		return token != null ? token : entry.lastToken();
+	}
+
+	/**
+	 * Commit a token pushed out of the full history, and take it out of its bar so it is not committed again.
+	 */
+	private void commitPushedOut(final Parcelable token) {
+		if(token == null)
+			return;
+
+		final UndoBarEntry entry = removeFromEntries(token);
+		if(entry != null && entry.tokenCount() == 0) {
+			// Nothing left to undo on it.
+			if(entry == mCurrent) {
+				hideUndoBar(false, UndoBarMetrics.DISMISS_DROPPED);
+			}
+			else {
+				mQueue.remove(entry);
+				onDismiss(UndoBarMetrics.DISMISS_DROPPED);
+				commit(entry);
+			}
+		}
+		commit(token);
+	}
+
 	protected void setStyle(UndoBarStyle style) {
 		if(style != null && !style.equals(mStyle)) {
 			mStyle = style;
+			// Placeholders apply it once inflated.
+			if(mInflated)
+				applyStyleTimed(style);
+		}
+	}
 
-			final String buttonText;
-			if(mStyle.titleRes != UndoBarStyle.IGNORE_RESOURCE &&
-				(buttonText = getResources().getString(mStyle.titleRes)) != null) {
+	private void applyStyleTimed(final UndoBarStyle style) {
+		final long start = sMetrics != null ? System.nanoTime() : 0;
+		applyStyle(style);
+		if(sMetrics != null)
+			sMetrics.onApplyStyle(System.nanoTime() - start);
+	}
 
-				mButton.setVisibility(View.VISIBLE);
-				mButton.setText(buttonText.toUpperCase());
+	/**
+	 * Apply a style to the inflated undo bar.
+	 */
+	@SuppressWarnings("deprecation")
+	protected void applyStyle(UndoBarStyle style) {
 
-				if(mStyle.iconRes != UndoBarStyle.IGNORE_RESOURCE) {
-					mButton.setCompoundDrawablesWithIntrinsicBounds(getResources()
-							.getDrawable(mStyle.iconRes), null, null, null);
-				}
+		final UndoBarStyleCache.Resolved resolved = UndoBarStyleCache.get(getContext(), style);
+		final UndoBarStyleCache.Drawables drawables = mStyleDrawables.get(getResources(), style, resolved);
+		if(mFlatView != null) {
+			mFlatView.setStyle(resolved, drawables);
+			return;
+		}
 
-				// Change button background, but preserve the padding.
-				if(mStyle.buttonBgRes != UndoBarStyle.IGNORE_RESOURCE) {
-					final int paddingLeft, paddingRight;
-					paddingLeft = mButton.getPaddingLeft();
-					paddingRight = mButton.getPaddingRight();
-					mButton.setBackgroundResource(mStyle.buttonBgRes);
-					mButton.setPadding(paddingLeft, 0, paddingRight, 0);
-				}
+		if(resolved.title != null) {
+			mButton.setVisibility(View.VISIBLE);
+			mButton.setText(resolved.upperCaseTitle);
+
+			if(drawables.icon != null)
+				mButton.setCompoundDrawablesWithIntrinsicBounds(drawables.icon, null, null, null);
 
-				// Show divider.
-				findViewById(R.id.undobar_divider).setVisibility(View.VISIBLE);
+			// Change button background, but preserve the padding.
+			if(drawables.buttonBackground != null) {
+				final int paddingLeft, paddingRight;
+				paddingLeft = mButton.getPaddingLeft();
+				paddingRight = mButton.getPaddingRight();
+				mButton.setBackgroundDrawable(drawables.buttonBackground);
+				mButton.setPadding(paddingLeft, 0, paddingRight, 0);
 			}
-			else {
-				mButton.setVisibility(View.GONE);
-				findViewById(R.id.undobar_divider).setVisibility(View.GONE);
+
+			// Show divider.
+			findViewById(R.id.undobar_divider).setVisibility(View.VISIBLE);
+		}
+		else {
+			mButton.setVisibility(View.GONE);
+			findViewById(R.id.undobar_divider).setVisibility(View.GONE);
+		}
+
+		if(drawables.background != null)
+			findViewById(R.id.undobar).setBackgroundDrawable(drawables.background);
+	}
+
+	protected void setUndoListener(final UndoListener undoListener) {
+		mUndoListener = undoListener;
+	}
+
+	public UndoListener getUndoListener() {
+		return mUndoListener;
+	}
+
+	/**
+	 * Set a listener to commit the destructive work once bars can no longer be undone.
+	 * Tokens of bars expiring close together are batched into a single call.
+	 *
+	 * @param listener Callback listener, or null to stop committing.
+	 * @param executor Background executor the listener is called on.
+	 */
+	public void setCommitListener(final CommitListener listener, final Executor executor) {
+		mCommitter = listener != null ? new UndoBarCommitter(listener, executor) : null;
+	}
+
+	/**
+	 * Set the message shown when several bars of the same style are coalesced into one.
+	 * The plurals resource is formatted with the number of coalesced bars, e.g. "%d items deleted".
+	 * By default the most recent message is shown.
+	 *
+	 * @param pluralsRes Plurals resource id, or {@link UndoBarStyle#IGNORE_RESOURCE}.
+	 */
+	public void setCoalescedMessage(final int pluralsRes) {
+		mCoalescedMessageRes = pluralsRes;
+	}
+
+	/**
+	 * Keep the last tokens shown in a history, so the bar's button undoes its tokens one at a time, most recent
+	 * first. Tokens stay undoable with {@link #undoLast()} after their bar hides, and are only committed once pushed
+	 * out of the history, or when the Activity finishes or the controller is detached for good without saving them.
+	 * A history restored before this is called is kept for it.
+	 *
+	 * @param history {@link UndoHistory}, or null to undo a whole bar at once.
+	 * @param saveState Whether to save the history's tokens with the instance state.
+	 */
+	public void setUndoHistory(final UndoHistory history, final boolean saveState) {
+		mHistory = history;
+		mSaveHistory = saveState;
+
+		final Parcelable[] restored = mRestoredHistory;
+		mRestoredHistory = null;
+		if(restored != null) {
+			if(history != null)
+				restoreHistory(restored);
+			else
+				commitUnheld(restored);
+		}
+	}
+
+	/**
+	 * Push restored tokens, oldest first, committing those pushed out of a smaller history.
+	 */
+	private void restoreHistory(final Parcelable[] tokens) {
+		mHistory.clear();
+		for(Parcelable token : tokens)
+			commitPushedOut(mHistory.push(token));
+		if(mCurrent != null)
+			mUndoToken = getUndoToken(mCurrent);
+	}
+
+	/**
+	 * Commit the history, once it can no longer be restored. Tokens still on a bar are committed with it.
+	 */
+	private void commitHistory() {
+		if(mHistory != null) {
+			while(!mHistory.isEmpty()) {
+				final Parcelable token = mHistory.pop();
+				if(!isHeld(token))
+					commit(token);
+			}
+		}
+		if(mRestoredHistory != null) {
+			commitUnheld(mRestoredHistory);
+			mRestoredHistory = null;
+		}
+	}
+
+	private void commitUnheld(final Parcelable[] tokens) {
+		for(Parcelable token : tokens) {
+			if(!isHeld(token))
+				commit(token);
+		}
+	}
+
+	/**
+	 * @return whether the visible or a pending bar holds the token.
+	 */
+	private boolean isHeld(final Parcelable token) {
+		if(mCurrent != null && mCurrent.indexOfToken(token) >= 0)
+			return true;
+		for(int i = 0; i < mQueue.size(); i++) {
+			if(mQueue.get(i).indexOfToken(token) >= 0)
+				return true;
+		}
+		return false;
+	}
+
+	public UndoHistory getUndoHistory() {
+		return mHistory;
+	}
+
+	/**
+	 * Let the user dismiss the visible bar by swiping it sideways, which commits it like a timeout.
+	 * Enabled by default. Only supported on Honeycomb and newer.
+	 */
+	public void setSwipeToDismiss(final boolean enabled) {
+		mSwipeToDismiss = enabled;
+		if(!enabled && mSwipe != null)
+			mSwipe.reset();
+	}
+
+	/**
+	 * Fold repeated show requests into the visible bar. A request with the same style and message as the visible
+	 * bar, made within the window since the previous one, extends the bar and counts as one more occurrence,
+	 * without showing or rebinding it again. Its token is still added to the bar.
+	 *
+	 * @param windowMillis Dedup window in milliseconds, or 0 to show every request.
+	 */
+	public void setDedupWindow(final long windowMillis) {
+		mDedupWindow = windowMillis;
+	}
+
+	/**
+	 * @return the number of identical show requests folded into the visible bar, or 0 if no bar is visible.
+	 */
+	public int getOccurrenceCount() {
+		return mCurrent != null ? mCurrent.occurrences : 0;
+	}
+
+	/**
+	 * Limit how often bars of a style are shown: up to burst bars at once, then one more per interval.
+	 * Requests over the limit are folded into the visible or pending bar of the same style, or dropped and
+	 * committed if there is none.
+	 *
+	 * @param style The limited style.
+	 * @param burst Number of bars that can be shown at once, or 0 to remove the limit.
+	 * @param intervalMillis Time to earn one more bar.
+	 */
+	public void setRateLimit(final UndoBarStyle style, final int burst, final long intervalMillis) {
+		if(burst <= 0) {
+			if(mRateLimits != null)
+				mRateLimits.remove(style);
+			return;
+		}
+
+		if(mRateLimits == null)
+			mRateLimits = new HashMap<UndoBarStyle, UndoBarRateLimit>();
+		mRateLimits.put(style, new UndoBarRateLimit(burst, intervalMillis));
+	}
+
+	private UndoBarStyle getNextStyle() {
+		return mNextStyle != null ? mNextStyle : mStyle;
+	}
+
+	private void setNextStyle(final UndoBarStyle style) {
+		mNextStyle = style;
+		// Restyle right away unless a bar is visible. Otherwise, the style is applied with the next bar.
+		if(mCurrent == null)
+			setStyle(style);
+	}
+
+	protected void showUndoBar(final boolean immediate, final boolean dismissOnOutsideTouch, final CharSequence message,
+	                           final Parcelable undoToken) {
+		showUndoBar(getNextStyle(), immediate, dismissOnOutsideTouch, message, UndoBarStyle.IGNORE_RESOURCE, false, 0,
+				undoToken);
+	}
+
+	/**
+	 * Show a {@link #RETRYSTYLE} bar that runs a task again, with exponential backoff and a countdown on the bar,
+	 * until it succeeds or runs out of attempts. The button retries right away. The bar stays while attempts remain,
+	 * and hides after the usual duration once they are used up. The retries stop when the bar is hidden or the view
+	 * is detached.
+	 *
+	 * @param message The message of the bar.
+	 * @param task The work to retry, run on a shared background executor.
+	 */
+	public void showRetry(final CharSequence message, final RetryTask task) {
+		cancelRetry();
+		showUndoBar(RETRYSTYLE, false, false, message, UndoBarStyle.IGNORE_RESOURCE, false, 0, null);
+
+		final UndoBarEntry entry = mCurrent != null && isSameStyle(mCurrent.style, RETRYSTYLE) ?
+				mCurrent : mQueue.find(RETRYSTYLE);
+		if(entry != null) {
+			mRetry = new UndoBarRetry(this, entry, message, task);
+			mRetry.schedule();
+		}
+	}
+
+	/**
+	 * Set how bars shown with {@link #showRetry(CharSequence, RetryTask)} retry.
+	 * Defaults to 5 attempts, from 1 second up to 1 minute apart.
+	 *
+	 * @param baseDelayMillis Delay before the first attempt, doubled for every next one.
+	 * @param maxDelayMillis Longest delay between two attempts.
+	 * @param maxAttempts Number of automatic attempts.
+	 */
+	public static void setRetryPolicy(final long baseDelayMillis, final long maxDelayMillis, final int maxAttempts) {
+		UndoBarRetry.setPolicy(baseDelayMillis, maxDelayMillis, maxAttempts);
+	}
+
+	private void cancelRetry() {
+		if(mRetry != null) {
+			mRetry.cancel();
+			mRetry = null;
+		}
+	}
+
+	void onRetryExhausted(final UndoBarRetry retry) {
+		if(retry == mRetry && retry.entry == mCurrent)
+			scheduleHide();
+	}
+
+	void onRetrySucceeded(final UndoBarRetry retry) {
+		if(retry != mRetry)
+			return;
+
+		mRetry = null;
+		if(mCurrent == retry.entry) {
+			hideUndoBar(false);
+		}
+		else {
+			mQueue.remove(retry.entry);
+			commit(retry.entry);
+		}
+	}
+
+	/**
+	 * Show a transient message on a bar, if it is the visible one, without changing its saved message.
+	 */
+	void setStatusMessage(final UndoBarEntry entry, final CharSequence message) {
+		if(mCurrent == entry)
+			setMessage(message);
+	}
+
+	/**
+	 * Show a bar whose message is a string or plurals resource formatted with a number. The message is formatted
+	 * into a reused buffer when bound, so showing it does not allocate.
+	 */
+	private void showUndoBar(final UndoBarStyle style, final boolean immediate, final boolean dismissOnOutsideTouch,
+	                         final CharSequence message, final int messageRes, final boolean quantityRes,
+	                         final long messageArg, final Parcelable undoToken) {
+		final long now = SystemClock.uptimeMillis();
+
+		// Over its style's rate limit, fold the request into a bar of the same style, or drop it.
+		final UndoBarRateLimit limit = mRateLimits != null && style != null ? mRateLimits.get(style) : null;
+		UndoBarEntry folded = null;
+		if(limit != null && !limit.tryAcquire(now)) {
+			folded = mCurrent != null && isSameStyle(mCurrent.style, style) ? mCurrent : mQueue.find(style);
+			if(folded == null) {
+				onDismiss(UndoBarMetrics.DISMISS_DROPPED);
+				commit(undoToken);
+				return;
+			}
+		}
+
+		if(sJournal != null && undoToken != null) {
+			sJournal.record(undoToken, style, style != null && style.duration > 0 ?
+					System.currentTimeMillis() + style.duration : 0);
+		}
+
+		addToBar(style, immediate, dismissOnOutsideTouch, message, messageRes, quantityRes, messageArg, undoToken,
+				folded, now);
+
+		// Pushed once the token joined its bar, so a bar left with nothing to undo can be let go.
+		if(mHistory != null && undoToken != null)
+			commitPushedOut(mHistory.push(undoToken));
+	}
+
+	/**
+	 * Fold, merge, show or queue a show request that made it past the rate limit.
+	 *
+	 * @param folded The bar to fold the request into as it is over the rate limit, or null.
+	 */
+	private void addToBar(final UndoBarStyle style, final boolean immediate, final boolean dismissOnOutsideTouch,
+	                      final CharSequence message, final int messageRes, final boolean quantityRes,
+	                      final long messageArg, final Parcelable undoToken, final UndoBarEntry folded,
+	                      final long now) {
+		if(folded != null) {
+			repeat(folded, undoToken, now);
+			return;
+		}
+
+		// Merge bursts of the same kind into the visible bar, without animating it again.
+		if(mCurrent != null && isSameStyle(mCurrent.style, style)) {
+			// Repeats of the same message don't even rebind it.
+			if(mDedupWindow > 0 && now - mCurrent.lastShownAt <= mDedupWindow &&
+					mCurrent.hasMessage(message, messageRes, quantityRes, messageArg)) {
+				repeat(mCurrent, undoToken, now);
+				return;
+			}
+
+			mCurrent.merge(message, immediate, dismissOnOutsideTouch, undoToken);
+			mCurrent.lastShownAt = now;
+			if(messageRes != UndoBarStyle.IGNORE_RESOURCE)
+				mCurrent.setMessageRes(messageRes, quantityRes, messageArg);
+			bindEntry(mCurrent);
+			scheduleHide();
+			return;
+		}
+
+		// Or into a pending bar.
+		final UndoBarEntry pending = mQueue.find(style);
+		if(pending != null) {
+			pending.merge(message, immediate, dismissOnOutsideTouch, undoToken);
+			pending.lastShownAt = now;
+			if(messageRes != UndoBarStyle.IGNORE_RESOURCE)
+				pending.setMessageRes(messageRes, quantityRes, messageArg);
+			return;
+		}
+
+		final UndoBarEntry entry = UndoBarEntry.obtain(style, message, immediate, dismissOnOutsideTouch, undoToken);
+		entry.lastShownAt = now;
+		if(messageRes != UndoBarStyle.IGNORE_RESOURCE)
+			entry.setMessageRes(messageRes, quantityRes, messageArg);
+		if(mCurrent == null) {
+			showEntry(entry);
+		}
+		else if(preempts(entry, mCurrent)) {
+			// Put the visible bar back in line and show the new one in its place.
+			final UndoBarEntry dropped = mQueue.offerFirst(mCurrent);
+			if(dropped != null)
+				onDismiss(UndoBarMetrics.DISMISS_DROPPED);
+			commit(dropped);
+			showEntry(entry);
+		}
+		else {
+			final UndoBarEntry dropped = mQueue.offer(entry);
+			if(dropped != null)
+				onDismiss(UndoBarMetrics.DISMISS_DROPPED);
+			commit(dropped);
+		}
+	}
+
+	/**
+	 * Fold a repeated request into a visible or pending bar, extending the visible one.
+	 */
+	private void repeat(final UndoBarEntry entry, final Parcelable undoToken, final long now) {
+		entry.repeat(undoToken, now);
+		if(entry == mCurrent) {
+			if(undoToken != null)
+				mUndoToken = undoToken;
+			scheduleHide();
+		}
+	}
+
+	/**
+	 * Commit a bar that can no longer be undone, and recycle it.
+	 */
+	private void commit(final UndoBarEntry entry) {
+		if(entry == null)
+			return;
+
+		// Retries stop with their bar.
+		if(mRetry != null && mRetry.entry == entry)
+			cancelRetry();
+
+		// Tokens still in the history can be undone after their bar is gone.
+		if(mHistory != null) {
+			for(int i = 0; i < entry.tokenCount(); i++) {
+				if(!mHistory.contains(entry.tokenAt(i)))
+					commit(entry.tokenAt(i));
+			}
+		}
+		// The committer releases the tokens once they are committed.
+		else if(mCommitter != null) {
+			mCommitter.add(entry);
+			mCommitter.flush();
+		}
+		else {
+			entry.release();
+		}
+		entry.recycle();
+	}
+
+	private void commit(final Parcelable token) {
+		if(token == null)
+			return;
+
+		if(mCommitter != null) {
+			mCommitter.add(token);
+			mCommitter.flush();
+		}
+		else {
+			UndoBarEntry.release(token);
+		}
+	}
+
+	private static boolean isSameStyle(final UndoBarStyle style, final UndoBarStyle other) {
+		return style == other || (style != null && style.equals(other));
+	}
+
+	/**
+	 * A bar preempts the visible one if it has a higher priority,
+	 * or the same priority while the visible one would never hide by itself.
+	 */
+	private static boolean preempts(final UndoBarEntry entry, final UndoBarEntry current) {
+		final int priority = entry.priority();
+		final int currentPriority = current.priority();
+		return priority > currentPriority ||
+				(priority == currentPriority && (current.style == null || current.style.duration <= 0));
+	}
+
+	private void showEntry(final UndoBarEntry entry) {
+		if(sMetrics != null) {
+			mFirstFrameStart = System.nanoTime();
+			mVisibleStart = mFirstFrameStart;
+		}
+		ensureInflated();
+		if(mSwipe != null)
+			mSwipe.reset();
+		mCurrent = entry;
+		setStyle(entry.style);
+		bindEntry(entry);
+
+		mHandler.removeCallbacks(mGoneRunnable);
+		setVisibility(View.VISIBLE);
+
+		final Animation showAnimation;
+		if(entry.immediate) {
+			clearAnimation();
+			if(mAnimator != null)
+				mAnimator.jumpTo(true);
+			onShowAnimationEnd();
+		}
+		else if((showAnimation = onCreateShowAnimation()) != null) {
+			clearAnimation();
+			startAnimation(showAnimation);
+		}
+		else if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			getAnimator().show();
+		}
+		else {
+			onShowAnimationEnd();
+		}
+
+		// Schedule hide.
+		scheduleHide();
+	}
+
+	private void bindEntry(final UndoBarEntry entry) {
+		// A newer show supersedes pending updates.
+		cancelUpdate();
+		mUndoToken = getUndoToken(entry);
+		bindMessage(entry);
+		bindProgress(entry.progress);
+		mImmediate = entry.immediate;
+		mDismissOnOutsideTouch = entry.dismissOnOutsideTouch;
+		updateOutsideTouchInterceptor();
+	}
+
+	private void bindMessage(final UndoBarEntry entry) {
+		final CharSequence coalesced = entry.count > 1 ? onCreateCoalescedMessage(entry.message, entry.count) : null;
+		if(coalesced != null) {
+			setMessage(coalesced);
+		}
+		else if(entry.messageRes != UndoBarStyle.IGNORE_RESOURCE) {
+			// Resource texts are cached by Resources, and setText(char[]) reuses its wrapper.
+			final Resources res = getResources();
+			final CharSequence template = entry.quantityRes ?
+					res.getQuantityText(entry.messageRes, (int)entry.messageArg) :
+					res.getText(entry.messageRes);
+			final int length = mMessageFormat.format(template, entry.messageArg);
+			if(mFlatView != null)
+				mFlatView.setMessage(mMessageFormat.buffer(), length);
+			else
+				mMessageView.setText(mMessageFormat.buffer(), 0, length);
+		}
+		else {
+			setMessage(entry.message);
+		}
+	}
+
+	private void setMessage(final CharSequence message) {
+		if(mFlatView != null)
+			mFlatView.setMessage(message);
+		else
+			mMessageView.setText(message);
+	}
+
+	private void bindProgress(final int progress) {
+		if(mFlatView != null)
+			mFlatView.setProgress(progress);
+		if(mProgressView == null)
+			return;
+
+		if(progress == NO_PROGRESS) {
+			mProgressView.setVisibility(View.GONE);
+		}
+		else {
+			mProgressView.setProgress(progress);
+			mProgressView.setVisibility(View.VISIBLE);
+		}
+	}
+
+	/**
+	 * Change the message of the visible bar, without animating it or restarting its timer.
+	 * Updates are applied at most once per frame, only the latest one is shown.
+	 *
+	 * @param message The new message.
+	 */
+	public void update(final CharSequence message) {
+		update(message, mUpdateScheduled ? mPendingProgress : mCurrent != null ? mCurrent.progress : NO_PROGRESS);
+	}
+
+	/**
+	 * Change the message and progress of the visible bar, without animating it or restarting its timer.
+	 * Updates are applied at most once per frame, only the latest one is shown.
+	 *
+	 * @param message The new message, or null to keep the current one.
+	 * @param progress Progress between 0 and 100, or {@link #NO_PROGRESS} to hide the progress bar.
+	 */
+	public void update(final CharSequence message, final int progress) {
+		if(mCurrent == null)
+			return;
+
+		if(message != null || !mUpdateScheduled)
+			mPendingMessage = message;
+		mPendingProgress = progress;
+		if(!mUpdateScheduled) {
+			mUpdateScheduled = true;
+			scheduleUpdate();
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private void scheduleUpdate() {
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+			postOnAnimation(mUpdateRunnable);
+		else
+			mHandler.postDelayed(mUpdateRunnable, FRAME_DELAY);
+	}
+
+	private void cancelUpdate() {
+		if(mUpdateScheduled) {
+			removeCallbacks(mUpdateRunnable);
+			mHandler.removeCallbacks(mUpdateRunnable);
+			mUpdateScheduled = false;
+		}
+		mPendingMessage = null;
+	}
+
+	private final Runnable mUpdateRunnable = new Runnable() {
+		@Override
+		public void run() {
+			mUpdateScheduled = false;
+			final UndoBarEntry entry = mCurrent;
+			final CharSequence message = mPendingMessage;
+			mPendingMessage = null;
+			if(entry == null)
+				return;
+
+			// Skip the text layout if nothing changed.
+			if(message != null &&
+					(entry.messageRes != UndoBarStyle.IGNORE_RESOURCE || !TextUtils.equals(message, entry.message))) {
+				entry.message = message;
+				entry.messageRes = UndoBarStyle.IGNORE_RESOURCE;
+				setMessage(message);
+			}
+			if(mPendingProgress != entry.progress) {
+				entry.progress = mPendingProgress;
+				bindProgress(entry.progress);
+			}
+		}
+	};
+
+	/**
+	 * Create the message for a bar that coalesced several show requests.
+	 *
+	 * @param message The most recent message, or null if it is a resource formatted when bound.
+	 * @param count The number of coalesced show requests.
+	 */
+	protected CharSequence onCreateCoalescedMessage(final CharSequence message, final int count) {
+		if(mCoalescedMessageRes != UndoBarStyle.IGNORE_RESOURCE)
+			return getResources().getQuantityString(mCoalescedMessageRes, count, count);
+		return message;
+	}
+
+	private void scheduleHide() {
+		long duration = mStyle != null ? mStyle.duration : 0;
+		// A retry bar out of attempts gives the usual time to retry by hand, then makes way for the pending bars.
+		if(mRetry != null && mRetry.entry == mCurrent && mRetry.isExhausted())
+			duration = UndoBarStyle.DEFAULT_DURATION;
+
+		if(duration > 0)
+			UndoBarTimer.get().schedule(this, SystemClock.uptimeMillis() + duration);
+		else
+			UndoBarTimer.get().cancel(this);
+	}
+
+	void onHideTimeout() {
+		hideUndoBar(false, UndoBarMetrics.DISMISS_TIMEOUT);
+	}
+
+	boolean isShowing() {
+		return mCurrent != null;
+	}
+
+	@Override
+	public boolean onInterceptTouchEvent(final MotionEvent ev) {
+		return (canSwipe() && getSwipe().onInterceptTouchEvent(ev)) || super.onInterceptTouchEvent(ev);
+	}
+
+	@Override
+	public boolean onTouchEvent(final MotionEvent ev) {
+		return (canSwipe() && getSwipe().onTouchEvent(ev)) || super.onTouchEvent(ev);
+	}
+
+	private boolean canSwipe() {
+		return mSwipeToDismiss && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private UndoBarSwipe getSwipe() {
+		if(mSwipe == null)
+			mSwipe = new UndoBarSwipe(this);
+		return mSwipe;
+	}
+
+	void onSwipeStart() {
+		UndoBarTimer.get().cancel(this);
+	}
+
+	void onSwipeCancel() {
+		if(mCurrent != null)
+			scheduleHide();
+	}
+
+	void onSwipeDismiss() {
+		hideUndoBar(true, UndoBarMetrics.DISMISS_SWIPE);
+	}
+
+	private static void onDismiss(final int reason) {
+		if(sMetrics != null)
+			sMetrics.onDismiss(reason);
+	}
+
+	@Override
+	protected void dispatchDraw(final Canvas canvas) {
+		super.dispatchDraw(canvas);
+		if(mFirstFrameStart != 0) {
+			if(sMetrics != null)
+				sMetrics.onFirstFrame(System.nanoTime() - mFirstFrameStart);
+			mFirstFrameStart = 0;
+		}
+	}
+
+	void onShowAnimationEnd() {
+		if(mVisibleStart != 0) {
+			if(sMetrics != null)
+				sMetrics.onVisible(System.nanoTime() - mVisibleStart);
+			mVisibleStart = 0;
+		}
+	}
+
+	/**
+	 * Stop the auto-hide timers of all undo bars, e.g. while the app is in the background.
+	 */
+	public static void pauseTimers() {
+		UndoBarTimer.get().pause();
+	}
+
+	/**
+	 * Restart the auto-hide timers of all undo bars, with the time they were paused added back.
+	 */
+	public static void resumeTimers() {
+		UndoBarTimer.get().resume();
+	}
+
+	private UndoBarAnimator getAnimator() {
+		if(mAnimator == null)
+			mAnimator = new UndoBarAnimator(this);
+		return mAnimator;
+	}
+
+	/**
+	 * Create the animation used to show the bar. On Honeycomb and newer this returns null by default,
+	 * and the bar uses its built-in, interruptible property animation instead.
+	 */
+	protected Animation onCreateShowAnimation() {
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+			return null;
+
+		if(mFadeInAnimation == null) {
+			final Context context = getContext();
+			mFadeInAnimation = context != null ?
+					AnimationUtils.loadAnimation(getContext(), android.R.anim.fade_in) :
+					null;
+		}
+		return mFadeInAnimation;
+	}
+
+	protected void hideUndoBar(final boolean immediate) {
+		hideUndoBar(immediate, UndoBarMetrics.DISMISS_HIDE);
+	}
+
+	private void hideUndoBar(final boolean immediate, final int reason) {
+		UndoBarTimer.get().cancel(this);
+		cancelUpdate();
+		if(mSwipe != null)
+			mSwipe.reset();
+		if(mCurrent != null)
+			onDismiss(reason);
+		commit(mCurrent);
+		mCurrent = null;
+		mUndoToken = null;
+		mFirstFrameStart = 0;
+		mVisibleStart = 0;
+
+		// Show the next pending bar in place of this one.
+		final UndoBarEntry next = mQueue.poll();
+		if(next != null) {
+			showEntry(next);
+			return;
+		}
+
+		final Animation hideAnimation;
+		if(immediate || getVisibility() != View.VISIBLE) {
+			clearAnimation();
+			if(mAnimator != null)
+				mAnimator.jumpTo(false);
+			setVisibility(View.GONE);
+		}
+		else if((hideAnimation = onCreateHideAnimation()) != null) {
+			// Hidden for real once the animation ends, see onAnimationEnd().
+			clearAnimation();
+			startAnimation(hideAnimation);
+		}
+		else if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			getAnimator().hide();
+		}
+		else {
+			setVisibility(View.GONE);
+		}
+		updateOutsideTouchInterceptor();
+	}
+
+	@Override
+	protected void onAnimationEnd() {
+		super.onAnimationEnd();
+		// Called while drawing, so change the visibility right after.
+		if(mCurrent == null)
+			mHandler.post(mGoneRunnable);
+		else
+			onShowAnimationEnd();
+	}
+
+	void onHideAnimationEnd() {
+		if(mCurrent == null)
+			setVisibility(View.GONE);
+	}
+
+	private final Runnable mGoneRunnable = new Runnable() {
+		@Override
+		public void run() {
+			onHideAnimationEnd();
+		}
+	};
+
+	/**
+	 * Create the animation used to hide the bar. On Honeycomb and newer this returns null by default,
+	 * and the bar uses its built-in, interruptible property animation instead.
+	 */
+	protected Animation onCreateHideAnimation() {
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+			return null;
+
+		if(mFadeOutAnimation == null) {
+			final Context context = getContext();
+			mFadeOutAnimation = context != null ?
+					AnimationUtils.loadAnimation(getContext(), android.R.anim.fade_out) :
+					null;
+		}
+		return mFadeOutAnimation;
+	}
+
+	/**
+	 * Hide the visible bar and drop the pending ones, committing all of them.
+	 */
+	private void hideAll(final boolean immediate) {
+		for(int i = 0; i < mQueue.size(); i++) {
+			onDismiss(UndoBarMetrics.DISMISS_HIDE);
+			commit(mQueue.get(i));
+		}
+		mQueue.clear();
+		hideUndoBar(immediate);
+	}
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+
+		mStateSaved = false;
+		// Resume the timer of a bar that was detached while visible.
+		if(mCurrent != null)
+			scheduleHide();
+		updateOutsideTouchInterceptor();
+	}
+
+	@Override
+	protected void onWindowVisibilityChanged(final int visibility) {
+		super.onWindowVisibilityChanged(visibility);
+		// Back on screen, whatever was saved when it left may be out of date.
+		if(visibility == View.VISIBLE)
+			mStateSaved = false;
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+
+		// Don't let a detached bar time out: its state may be restored in a new window.
+		UndoBarTimer.get().cancel(this);
+		cancelUpdate();
+		// An application-scoped bar is only moving to another Activity.
+		if(!mApplicationScoped)
+			cancelRetry();
+		removeOutsideTouchInterceptor();
+		if(mSwipe != null)
+			mSwipe.recycle();
+		UndoBarRegistry.remove(this);
+
+		// Unless its Activity is going away for good, then nothing can be undone anymore.
+		final Activity activity = getActivity(getContext());
+		if(activity != null && activity.isFinishing()) {
+			if(mCurrent != null)
+				hideAll(true);
+			commitHistory();
+		}
+		else if(!mApplicationScoped) {
+			// Otherwise it may be attached again or restored from its saved state, checked once the detach settles.
+			mHandler.post(mDetachedRunnable);
+		}
+	}
+
+	private final Runnable mDetachedRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if(getWindowToken() != null)
+				return;
+
+			// Neither attached again nor saved, its bars will never show again: commit them like expired ones.
+			if(!mStateSaved && (mCurrent != null || !mQueue.isEmpty()))
+				hideAll(true);
+			// A history that is not saved can't be undone from anymore.
+			if(!mStateSaved || (mHistory != null && !mSaveHistory))
+				commitHistory();
+
+			// Nothing left to undo: recycle it.
+			if(!mPoolable || mCurrent != null || !mQueue.isEmpty() || (mHistory != null && !mHistory.isEmpty()) ||
+					mRestoredHistory != null)
+				return;
+
+			final ViewGroup container = (ViewGroup)getParent();
+			if(container != null) {
+				// The container may only be detached for a while: it keeps the configuration for the controller it
+				// gets once attached again.
+				container.setTag(R.id._undobar_config, new Config(UndoBarController.this));
+				container.removeView(UndoBarController.this);
 			}
+			reset();
+			UndoBarPool.release(UndoBarController.this);
+		}
+	};
+
+	/**
+	 * Forget everything about the previous container before reuse, keeping the inflated and styled views.
+	 */
+	private void reset() {
+		UndoBarTimer.get().cancel(this);
+		cancelUpdate();
+		cancelRetry();
+		mHandler.removeCallbacks(mGoneRunnable);
+		mUndoListener = null;
+		mCommitter = null;
+		mStyle = null;
+		mNextStyle = null;
+		mCoalescedMessageRes = UndoBarStyle.IGNORE_RESOURCE;
+		mHistory = null;
+		mSaveHistory = false;
+		mRestoredHistory = null;
+		mStateSaved = false;
+		mDedupWindow = 0;
+		mRateLimits = null;
+		mCurrent = null;
+		mQueue.clear();
+		mUndoToken = null;
+		mImmediate = false;
+		mDismissOnOutsideTouch = false;
+		mFirstFrameStart = 0;
+		mVisibleStart = 0;
+		mSwipeToDismiss = true;
+		if(mSwipe != null)
+			mSwipe.reset();
+
+		clearAnimation();
+		if(mAnimator != null)
+			mAnimator.jumpTo(false);
+		setVisibility(View.GONE);
+	}
 
-			if(mStyle.bgRes != UndoBarStyle.IGNORE_RESOURCE)
-				findViewById(R.id.undobar).setBackgroundResource(mStyle.bgRes);
+	/**
+	 * Configuration of a recycled controller, left with its container.
+	 */
+	private static final class Config {
+		private final UndoListener mUndoListener;
+		private final UndoBarCommitter mCommitter;
+		private final UndoBarStyle mNextStyle;
+		private final int mCoalescedMessageRes;
+		// Empty, as only controllers with nothing left to undo are recycled.
+		private final UndoHistory mHistory;
+		private final boolean mSaveHistory;
+		private final long mDedupWindow;
+		private final HashMap<UndoBarStyle, UndoBarRateLimit> mRateLimits;
+		private final boolean mSwipeToDismiss;
+
+		Config(final UndoBarController undo) {
+			mUndoListener = undo.mUndoListener;
+			mCommitter = undo.mCommitter;
+			mNextStyle = undo.mNextStyle;
+			mCoalescedMessageRes = undo.mCoalescedMessageRes;
+			mHistory = undo.mHistory;
+			mSaveHistory = undo.mSaveHistory;
+			mDedupWindow = undo.mDedupWindow;
+			mRateLimits = undo.mRateLimits;
+			mSwipeToDismiss = undo.mSwipeToDismiss;
 		}
-	}
 
-	protected void setUndoListener(final UndoListener undoListener) {
-		mUndoListener = undoListener;
+		void applyTo(final UndoBarController undo) {
+			undo.mUndoListener = mUndoListener;
+			undo.mCommitter = mCommitter;
+			undo.mNextStyle = mNextStyle;
+			undo.mCoalescedMessageRes = mCoalescedMessageRes;
+			undo.mHistory = mHistory;
+			undo.mSaveHistory = mSaveHistory;
+			undo.mDedupWindow = mDedupWindow;
+			undo.mRateLimits = mRateLimits;
+			undo.mSwipeToDismiss = mSwipeToDismiss;
+		}
 	}
 
-	public UndoListener getUndoListener() {
-		return mUndoListener;
+	/**
+	 * @return how many controllers were reused from the pool of detached controllers.
+	 */
+	public static int getPoolHitCount() {
+		return UndoBarPool.getHitCount();
 	}
 
-	protected void showUndoBar(final boolean immediate, final boolean dismissOnOutsideTouch, final CharSequence message,
-	                           final Parcelable undoToken) {
-		mUndoToken = undoToken;
-		mMessageView.setText(message);
+	/**
+	 * @return how many controllers had to be created because none could be reused from the pool.
+	 */
+	public static int getPoolMissCount() {
+		return UndoBarPool.getMissCount();
+	}
 
-		final Animation showAnimation;
-		if(!immediate &&
-			(showAnimation = onCreateShowAnimation()) != null) {
-			clearAnimation();
-			startAnimation(showAnimation);
+	static Activity getActivity(Context context) {
+		while(context instanceof ContextWrapper) {
+			if(context instanceof Activity)
+				return (Activity)context;
+			context = ((ContextWrapper)context).getBaseContext();
 		}
-		setVisibility(View.VISIBLE);
+		return null;
+	}
 
-		mImmediate = immediate;
-		mDismissOnOutsideTouch = dismissOnOutsideTouch;
+	/**
+	 * Put the outside touch interceptor on top of the window only while a bar dismissible by outside touches is
+	 * visible. The window's own views are left untouched.
+	 */
+	private void updateOutsideTouchInterceptor() {
+		if(mCurrent == null || !mDismissOnOutsideTouch || getWindowToken() == null) {
+			if(mOutsideTouchInterceptor != null && mOutsideTouchInterceptor.getParent() != null) {
+				// Removed after the current event, as the interceptor may be the one dispatching it.
+				mHandler.post(mRemoveOutsideTouchInterceptor);
+			}
+			return;
+		}
 
-		// Schedule hide.
-		scheduleHide();
-	}
+		mHandler.removeCallbacks(mRemoveOutsideTouchInterceptor);
+		final View rootView = getRootView();
+		if(rootView instanceof ViewGroup && rootView != this) {
+			if(mOutsideTouchInterceptor == null)
+				mOutsideTouchInterceptor = new OutsideTouchInterceptor(getContext());
 
-	private void scheduleHide() {
-		mHideHandler.removeCallbacks(mHideRunnable);
-		if(mStyle != null && mStyle.duration > 0)
-			mHideHandler.postDelayed(mHideRunnable, mStyle != null ? mStyle.duration : UndoBarStyle.DEFAULT_DURATION);
+			if(mOutsideTouchInterceptor.getParent() != rootView) {
+				removeOutsideTouchInterceptor();
+				((ViewGroup)rootView).addView(mOutsideTouchInterceptor,
+						new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+			}
+		}
 	}
 
-	protected Animation onCreateShowAnimation() {
-		if(mFadeInAnimation == null) {
-			final Context context = getContext();
-			mFadeInAnimation = context != null ?
-					AnimationUtils.loadAnimation(getContext(), android.R.anim.fade_in) :
-					null;
+	private final Runnable mRemoveOutsideTouchInterceptor = new Runnable() {
+		@Override
+		public void run() {
+			if(mCurrent == null || !mDismissOnOutsideTouch)
+				removeOutsideTouchInterceptor();
 		}
-		return mFadeInAnimation;
-	}
+	};
 
-	protected void hideUndoBar(final boolean immediate) {
-		mHideHandler.removeCallbacks(mHideRunnable);
-		mUndoToken = null;
+	private void removeOutsideTouchInterceptor() {
+		mHandler.removeCallbacks(mRemoveOutsideTouchInterceptor);
+		if(mOutsideTouchInterceptor != null && mOutsideTouchInterceptor.getParent() != null)
+			((ViewGroup)mOutsideTouchInterceptor.getParent()).removeView(mOutsideTouchInterceptor);
+	}
 
-		final Animation hideAnimation;
-		if(!immediate &&
-			(hideAnimation = onCreateHideAnimation()) != null) {
-			clearAnimation();
-			startAnimation(hideAnimation);
+	/**
+	 * Whether a point in screen coordinates is inside the visible bar.
+	 *
+	 * The bar's bounds are looked up once per layout or scroll in the window, and its translation is applied on top
+	 * of them, so testing a touch is a few comparisons while the bar slides in or is swiped.
+	 */
+	private boolean isInsideBar(final float x, final float y) {
+		final View bar = getChildCount() > 0 ? getChildAt(0) : this;
+		float translationX = 0;
+		float translationY = 0;
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			translationX = getTranslationX(bar);
+			translationY = getTranslationY(bar);
 		}
-		setVisibility(View.GONE);
-	}
 
-	protected Animation onCreateHideAnimation() {
-		if(mFadeOutAnimation == null) {
-			final Context context = getContext();
-			mFadeOutAnimation = context != null ?
-					AnimationUtils.loadAnimation(getContext(), android.R.anim.fade_out) :
-					null;
+		if(!mBarBoundsValid) {
+			// On screen locations include the bar's own translation.
+			bar.getLocationOnScreen(mLocation);
+			final int left = mLocation[0] - (int)translationX;
+			final int top = mLocation[1] - (int)translationY;
+			mBarBounds.set(left, top, left + bar.getWidth(), top + bar.getHeight());
+			mBarBoundsValid = true;
 		}
-		return mFadeOutAnimation;
+
+		return mBarBounds.contains((int)(x - translationX), (int)(y - translationY));
 	}
 
-	@Override
-	protected void onAttachedToWindow() {
-		ensureOutsideTouchLayout();
-		super.onAttachedToWindow();
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private static float getTranslationX(final View view) {
+		return view.getTranslationX();
 	}
 
-	private void ensureOutsideTouchLayout() {
-		final ViewGroup rootView = (ViewGroup)getRootView();
-		if(rootView != null && rootView.findViewById(R.id._undobar_outside_touch_layout) == null) {
-			// Inject the outside touch layout, if it is not already present.
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private static float getTranslationY(final View view) {
+		return view.getTranslationY();
+	}
 
-			// Initialize outside touch layout.
-			final ViewGroup outsideTouchLayout = new DismissOnOutsideTouchFrameLayout(getContext());
+	/**
+	 * Empty view laid over the whole window, which sees every touch before the window's views.
+	 * It never consumes them, it only dismisses the bar on touches outside of it.
+	 */
+	private class OutsideTouchInterceptor extends View
+			implements ViewTreeObserver.OnGlobalLayoutListener, ViewTreeObserver.OnScrollChangedListener {
+		public OutsideTouchInterceptor(Context context) {
+			super(context);
+			setId(R.id._undobar_outside_touch_layout);
+		}
 
-			final int rootCount = rootView.getChildCount();
-			for(int i = 0; i < rootCount; i++) {
-				final View child = rootView.getChildAt(i);
-				if(child != null) {
-					rootView.removeViewAt(i);
+		@Override
+		protected void onAttachedToWindow() {
+			super.onAttachedToWindow();
+			mBarBoundsValid = false;
+			final ViewTreeObserver observer = getViewTreeObserver();
+			observer.addOnGlobalLayoutListener(this);
+			observer.addOnScrollChangedListener(this);
+		}
 
-					outsideTouchLayout.addView(child);
-				}
-			}
+		@Override
+		@SuppressWarnings("deprecation")
+		protected void onDetachedFromWindow() {
+			super.onDetachedFromWindow();
+			mBarBoundsValid = false;
+			final ViewTreeObserver observer = getViewTreeObserver();
+			observer.removeGlobalOnLayoutListener(this);
+			observer.removeOnScrollChangedListener(this);
+		}
 
-			rootView.addView(outsideTouchLayout);
+		@Override
+		public void onGlobalLayout() {
+			// The bar may have moved or changed size.
+			mBarBoundsValid = false;
 		}
-	}
 
-	private class DismissOnOutsideTouchFrameLayout extends FrameLayout {
-		public DismissOnOutsideTouchFrameLayout(Context context) {
-			super(context);
-			setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
-			setId(R.id._undobar_outside_touch_layout);
+		@Override
+		public void onScrollChanged() {
+			// A scrolling parent moves the bar on screen without a layout.
+			mBarBoundsValid = false;
 		}
 
 		@Override
 		public boolean dispatchTouchEvent(MotionEvent ev) {
-			if(mDismissOnOutsideTouch) {
-				final int action = ev.getAction();
-				if(action == MotionEvent.ACTION_DOWN) {
-					if(UndoBarController.this.getVisibility() == View.VISIBLE) {
-						// We clear the controller's flag for dispatched touch events.
-						mDispatchedTouchEvent = false;
-						final boolean dispatched = super.dispatchTouchEvent(ev);
-
-						// After dispatching all touches, if the undo bar didn't dispatch any events,
-						// it means the motion event was actually outside of the undo bar.
-						if(!mDispatchedTouchEvent) {
-							mDismissOnOutsideTouch = false; // Stop dismissing, since we are hiding the undo bar.
-							hide((ViewGroup)getRootView(), mImmediate);
-						}
-
-						return dispatched;
-					}
-					else {
-						// Stop dismissing, since the undo bar is already hidden.
-						mDismissOnOutsideTouch = false;
-					}
-				}
+			if(ev.getAction() == MotionEvent.ACTION_DOWN && mDismissOnOutsideTouch && mCurrent != null &&
+				!isInsideBar(ev.getRawX(), ev.getRawY())) {
+				mDismissOnOutsideTouch = false; // Stop dismissing, since we are hiding the undo bar.
+				hideUndoBar(mImmediate, UndoBarMetrics.DISMISS_OUTSIDE_TOUCH);
 			}
 
-			return super.dispatchTouchEvent(ev);
+			// Let the event go on to the views below.
+			return false;
 		}
 	}
 
-	@Override
-	public boolean dispatchTouchEvent(MotionEvent ev) {
-		mDispatchedTouchEvent = super.dispatchTouchEvent(ev);
-		return mDispatchedTouchEvent;
-	}
-
 	@Override
 	public Parcelable onSaveInstanceState() {
 		SavedState ss = new SavedState(super.onSaveInstanceState());
-		// Save visibility, token and style.
-		ss.visibility = getVisibility();
+		// Save visibility, token and style. A bar animating out is already hidden.
+		ss.visibility = mCurrent != null ? View.VISIBLE : View.GONE;
 		ss.immediate = mImmediate;
 		ss.dismissOnOutsideTouch = mDismissOnOutsideTouch;
 		ss.style = mStyle;
-		ss.token = mUndoToken;
+		// Copies, the entries are recycled once their bars are gone while the state may be written later.
+		ss.current = mCurrent != null ? new UndoBarEntry(mCurrent) : null;
+		ss.pending = new UndoBarEntry[mQueue.size()];
+		for(int i = 0; i < ss.pending.length; i++)
+			ss.pending[i] = new UndoBarEntry(mQueue.get(i));
+		if(mHistory != null && mSaveHistory)
+			ss.history = mHistory.toArray();
+		else if(mHistory == null)
+			ss.history = mRestoredHistory;
+		mStateSaved = true;
 
 		return ss;
 	}
@@ -297,6 +1669,8 @@ public class UndoBarController extends FrameLayout {
 		// Restore visibility.
 		if(getVisibility() != ss.visibility)
 			setVisibility(ss.visibility);
+		if(mAnimator != null)
+			mAnimator.jumpTo(ss.visibility == View.VISIBLE);
 
 		// Restore dismiss variables.
 		mImmediate = ss.immediate;
@@ -304,13 +1678,30 @@ public class UndoBarController extends FrameLayout {
 
 		// Restore style.
 		setStyle(ss.style);
+
+		// Restore the visible and pending bars.
+		mCurrent = ss.current;
+		if(mCurrent != null) {
+			ensureInflated();
+			bindEntry(mCurrent);
+		}
+		mQueue.clear();
+		for(UndoBarEntry entry : ss.pending)
+			mQueue.offer(entry);
+		if(mCurrent != null)
+			mUndoToken = getUndoToken(mCurrent);
+		if(ss.history != null) {
+			if(mHistory != null)
+				restoreHistory(ss.history);
+			else
+				// Until setUndoHistory() is called.
+				mRestoredHistory = ss.history;
+		}
+
 		// If we are restoring the undo bar, we will make sure
 		// it still disappears if the duration is set.
 		if(ss.visibility == View.VISIBLE)
 			scheduleHide();
-
-		// Restore token.
-		mUndoToken = ss.token;
 	}
 
 	static class SavedState extends BaseSavedState {
@@ -318,7 +1709,9 @@ public class UndoBarController extends FrameLayout {
 		boolean immediate;
 		boolean dismissOnOutsideTouch;
 		UndoBarStyle style;
-		Parcelable token;
+		UndoBarEntry current;
+		UndoBarEntry[] pending;
+		Parcelable[] history;
 
 		public SavedState(Parcelable superState) {
 			super(superState);
@@ -332,12 +1725,26 @@ public class UndoBarController extends FrameLayout {
 			dest.writeInt(dismissOnOutsideTouch ? 1 : 0);
 			dest.writeParcelable(style, 0);
 
-			// Marshall token.
-			final boolean hasToken = token != null;
-			dest.writeInt(hasToken ? 1 : 0);
-			if(hasToken) {
-				dest.writeString(token.getClass().getName());
-				dest.writeParcelable(token, 0);
+			// Marshall the visible and pending bars.
+			final boolean hasCurrent = current != null;
+			dest.writeInt(hasCurrent ? 1 : 0);
+			if(hasCurrent)
+				current.writeToParcel(dest, 0);
+			dest.writeInt(pending.length);
+			for(UndoBarEntry entry : pending)
+				entry.writeToParcel(dest, 0);
+
+			// Marshall the undo history, if it is saved. Inline tokens also on a bar are written as a reference to it,
+			// so they are read back as the same instance, like stored ones.
+			dest.writeInt(history != null ? history.length : -1);
+			if(history != null) {
+				final boolean inline = getTokenStore() == null;
+				for(Parcelable token : history) {
+					final int index = inline ? indexOfToken(token) : -1;
+					dest.writeInt(index);
+					if(index < 0)
+						UndoBarEntry.writeToken(dest, token, 0);
+				}
 			}
 		}
 
@@ -348,15 +1755,68 @@ public class UndoBarController extends FrameLayout {
 			dismissOnOutsideTouch = source.readInt() == 1;
 			style = source.readParcelable(UndoBarStyle.class.getClassLoader());
 
-			// Unmarshall token.
-			final boolean hasToken = source.readInt() == 1;
-			if(hasToken) {
-				try {
-					token = source.readParcelable(Class.forName(source.readString()).getClassLoader());
-				} catch (ClassNotFoundException e) {
-					throw new IllegalStateException("Undo token class not found.");
+			// Unmarshall the visible and pending bars.
+			final boolean hasCurrent = source.readInt() == 1;
+			if(hasCurrent)
+				current = new UndoBarEntry(source);
+			pending = new UndoBarEntry[source.readInt()];
+			for(int i = 0; i < pending.length; i++)
+				pending[i] = new UndoBarEntry(source);
+
+			// Unmarshall the undo history, skipping tokens lost with their spill file.
+			final int historySize = source.readInt();
+			if(historySize >= 0) {
+				int size = 0;
+				history = new Parcelable[historySize];
+				for(int i = 0; i < historySize; i++) {
+					final int index = source.readInt();
+					final Parcelable token = index >= 0 ? tokenAt(index) : UndoBarEntry.readToken(source);
+					if(token != null)
+						history[size++] = token;
 				}
+				if(size < historySize) {
+					final Parcelable[] tokens = new Parcelable[size];
+					System.arraycopy(history, 0, tokens, 0, size);
+					history = tokens;
+				}
+			}
+		}
+
+		/**
+		 * @return the index of a token among the tokens of the visible then pending bars, or -1.
+		 */
+		private int indexOfToken(final Parcelable token) {
+			int offset = 0;
+			if(current != null) {
+				final int index = current.indexOfToken(token);
+				if(index >= 0)
+					return index;
+				offset = current.tokenCount();
+			}
+			for(UndoBarEntry entry : pending) {
+				final int index = entry.indexOfToken(token);
+				if(index >= 0)
+					return offset + index;
+				offset += entry.tokenCount();
+			}
+			return -1;
+		}
+
+		/**
+		 * @return the token at an index of {@link #indexOfToken(Parcelable)}, or null if there is none.
+		 */
+		private Parcelable tokenAt(int index) {
+			if(current != null) {
+				if(index < current.tokenCount())
+					return current.tokenAt(index);
+				index -= current.tokenCount();
 			}
+			for(UndoBarEntry entry : pending) {
+				if(index < entry.tokenCount())
+					return entry.tokenAt(index);
+				index -= entry.tokenCount();
+			}
+			return null;
 		}
 
 		public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
@@ -375,6 +1835,8 @@ public class UndoBarController extends FrameLayout {
 	/**
 	 * Quick method to initialize the UndoBar into an Activity.
 	 * Usually called inside Activity's onCreate() method.
+	 * The Activity gets its own UndoBar, even after {@link #setupApplication(Application, UndoBarStyle, UndoListener)},
+	 * whose listener and style are left untouched.
 	 *
 	 * @param activity Activity to hold this view.
 	 * @param listener Callback listener triggered after click undo bar.
@@ -384,7 +1846,24 @@ public class UndoBarController extends FrameLayout {
 	 */
 	public static UndoBarController setup(final Activity activity, final UndoBarStyle style,
 	                                      final UndoListener listener) {
-		return setup(ensureView(activity), style, listener);
+		return setup(ensureOwnView(activity), style, listener);
+	}
+
+	/**
+	 * Quick method to initialize the UndoBar into an Activity, with the style of its theme.
+	 * Usually called inside Activity's onCreate() method.
+	 * The Activity gets its own UndoBar, even after {@link #setupApplication(Application, UndoBarStyle, UndoListener)},
+	 * whose listener and style are left untouched.
+	 *
+	 * @param activity Activity to hold this view.
+	 * @param listener Callback listener triggered after click undo bar.
+	 *
+	 * @return the created/configured UndoBarController.
+	 *
+	 * @see UndoBarStyle#fromTheme(Context)
+	 */
+	public static UndoBarController setup(final Activity activity, final UndoListener listener) {
+		return setup(ensureOwnView(activity), UndoBarStyle.fromTheme(activity), listener);
 	}
 
 	/**
@@ -404,28 +1883,114 @@ public class UndoBarController extends FrameLayout {
 		return setup(ensureView(container), style, listener);
 	}
 
+	/**
+	 * Use a single UndoBar for the whole application, moved into whichever Activity is resumed.
+	 * It is inflated only once, and bars shown right before starting or finishing an Activity stay visible,
+	 * and undoable, in the next one. The static methods taking an Activity use it from then on.
+	 * Usually called inside Application's onCreate() method. Ignored before Ice Cream Sandwich,
+	 * where every Activity keeps its own UndoBar.
+	 *
+	 * @param application The application.
+	 * @param style {@link UndoBarStyle}
+	 * @param listener Callback listener triggered after click undo bar. It must not hold on to an Activity.
+	 */
+	public static void setupApplication(final Application application, final UndoBarStyle style,
+	                                    final UndoListener listener) {
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+			setup(UndoBarAppScope.install(application), style, listener);
+	}
+
 	/**
 	 * Initialize the UndoBar's style and listener.
 	 */
 	private static UndoBarController setup(final UndoBarController undo, final UndoBarStyle style,
 	                                       final UndoListener listener) {
 		undo.setUndoListener(listener);
-		undo.setStyle(style);
+		undo.setNextStyle(style);
 		return undo;
 	}
 
 	private static UndoBarController ensureView(final Activity activity) {
-		final ViewGroup decorView = (ViewGroup)activity.getWindow().getDecorView();
-		final ViewGroup contentView = (ViewGroup)decorView.findViewById(android.R.id.content);
-		// Try to inject the view in the activity's content view. Otherwise, inject it directly in the decor view.
-		return ensureView(contentView != null ? contentView : decorView);
+		UndoBarController undo;
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+			undo = UndoBarAppScope.attachTo(activity);
+			if(undo != null)
+				return undo;
+		}
+
+		undo = UndoBarRegistry.get(activity);
+		if(undo == null) {
+			final ViewGroup decorView = (ViewGroup)activity.getWindow().getDecorView();
+			final ViewGroup contentView = (ViewGroup)decorView.findViewById(android.R.id.content);
+			// Try to inject the view in the activity's content view. Otherwise, inject it directly in the decor view.
+			undo = ensureView(contentView != null ? contentView : decorView);
+			UndoBarRegistry.put(activity, undo);
+		}
+		return undo;
+	}
+
+	/**
+	 * @return the Activity's own controller, never the application's one.
+	 */
+	private static UndoBarController ensureOwnView(final Activity activity) {
+		UndoBarController undo = UndoBarRegistry.get(activity);
+		if(undo == null || undo.mApplicationScoped) {
+			final ViewGroup decorView = (ViewGroup)activity.getWindow().getDecorView();
+			final ViewGroup contentView = (ViewGroup)decorView.findViewById(android.R.id.content);
+			final ViewGroup container = contentView != null ? contentView : decorView;
+			undo = find(container);
+			if(undo == null || undo.mApplicationScoped)
+				undo = addView(container);
+			UndoBarRegistry.put(activity, undo);
+		}
+		return undo;
 	}
+
 	private static UndoBarController ensureView(final ViewGroup container) {
-		UndoBarController undo = (UndoBarController)container.findViewById(R.id._undobar_controller);
+		final UndoBarController undo = find(container);
+		return undo != null ? undo : addView(container);
+	}
+
+	private static UndoBarController addView(final ViewGroup container) {
+		// Reuse a detached controller, or create one as it doesn't already exist.
+		UndoBarController undo = UndoBarPool.acquire(container.getContext());
 		if(undo == null) {
-			// Create the undo bar controller as it doesn't already exist.
 			undo = new UndoBarController(container.getContext(), null);
-			container.addView(undo);
+			undo.mPoolable = true;
+		}
+		// Configured like the one recycled while the container was detached, if any.
+		final Config config = (Config)container.getTag(R.id._undobar_config);
+		if(config != null) {
+			container.setTag(R.id._undobar_config, null);
+			config.applyTo(undo);
+		}
+		container.addView(undo);
+		UndoBarRegistry.put(container, undo);
+		return undo;
+	}
+
+	/**
+	 * Find the controller of an Activity, searching its window only if it is not registered yet.
+	 */
+	private static UndoBarController find(final Activity activity) {
+		UndoBarController undo = UndoBarRegistry.get(activity);
+		if(undo == null) {
+			undo = find((ViewGroup)activity.getWindow().getDecorView());
+			if(undo != null)
+				UndoBarRegistry.put(activity, undo);
+		}
+		return undo;
+	}
+
+	/**
+	 * Find the controller of a container, searching its view tree only if it is not registered yet.
+	 */
+	private static UndoBarController find(final ViewGroup container) {
+		UndoBarController undo = UndoBarRegistry.get(container);
+		if(undo == null) {
+			undo = (UndoBarController)container.findViewById(R.id._undobar_controller);
+			if(undo != null)
+				UndoBarRegistry.put(container, undo);
 		}
 		return undo;
 	}
@@ -467,13 +2032,208 @@ public class UndoBarController extends FrameLayout {
 		return undo;
 	}
 
+	/**
+	 * Quick method to show a UndoBar into an Activity, without allocating a message.
+	 *
+	 * @param activity Activity to hold this view.
+	 * @param messageRes String resource id of the message. Every %d or %1$d in it is replaced with arg.
+	 * @param arg The number formatted into the message.
+	 * @param immediate Show undo bar immediately or show it with animation.
+	 * @param dismissOnOutsideTouch Dismiss undo bar if user clicks outside of it.
+	 * @param undoToken Token info,will pass to callback to help you to undo.
+	 *
+	 * @return the shown UndoBarController.
+	 */
+	public static UndoBarController show(final Activity activity, final int messageRes, final long arg,
+	                                     final boolean immediate, final boolean dismissOnOutsideTouch,
+	                                     final Parcelable undoToken) {
+		final UndoBarController undo = UndoBarController.ensureView(activity);
+		undo.showUndoBar(undo.getNextStyle(), immediate, dismissOnOutsideTouch, null, messageRes, false, arg,
+				undoToken);
+		return undo;
+	}
+
+	/**
+	 * Quick method to show a UndoBar inside a ViewGroup, without allocating a message.
+	 *
+	 * @param container The ViewGroup that will contain the UndoBar.
+	 * @param messageRes String resource id of the message. Every %d or %1$d in it is replaced with arg.
+	 * @param arg The number formatted into the message.
+	 * @param immediate Show undo bar immediately or show it with animation.
+	 * @param dismissOnOutsideTouch Dismiss undo bar if user clicks outside of it.
+	 * @param undoToken Token info,will pass to callback to help you to undo.
+	 *
+	 * @return the shown UndoBarController.
+	 */
+	public static UndoBarController show(final ViewGroup container, final int messageRes, final long arg,
+	                                     final boolean immediate, final boolean dismissOnOutsideTouch,
+	                                     final Parcelable undoToken) {
+		final UndoBarController undo = UndoBarController.ensureView(container);
+		undo.showUndoBar(undo.getNextStyle(), immediate, dismissOnOutsideTouch, null, messageRes, false, arg,
+				undoToken);
+		return undo;
+	}
+
+	/**
+	 * Quick method to show a UndoBar into an Activity with a plurals message, without allocating it.
+	 *
+	 * @param activity Activity to hold this view.
+	 * @param pluralsRes Plurals resource id of the message, e.g. "%d items deleted".
+	 * @param quantity The quantity selecting the plural form, also formatted into the message.
+	 * @param immediate Show undo bar immediately or show it with animation.
+	 * @param dismissOnOutsideTouch Dismiss undo bar if user clicks outside of it.
+	 * @param undoToken Token info,will pass to callback to help you to undo.
+	 *
+	 * @return the shown UndoBarController.
+	 */
+	public static UndoBarController showQuantity(final Activity activity, final int pluralsRes, final int quantity,
+	                                             final boolean immediate, final boolean dismissOnOutsideTouch,
+	                                             final Parcelable undoToken) {
+		final UndoBarController undo = UndoBarController.ensureView(activity);
+		undo.showUndoBar(undo.getNextStyle(), immediate, dismissOnOutsideTouch, null, pluralsRes, true, quantity,
+				undoToken);
+		return undo;
+	}
+
+	/**
+	 * Quick method to show a UndoBar inside a ViewGroup with a plurals message, without allocating it.
+	 *
+	 * @param container The ViewGroup that will contain the UndoBar.
+	 * @param pluralsRes Plurals resource id of the message, e.g. "%d items deleted".
+	 * @param quantity The quantity selecting the plural form, also formatted into the message.
+	 * @param immediate Show undo bar immediately or show it with animation.
+	 * @param dismissOnOutsideTouch Dismiss undo bar if user clicks outside of it.
+	 * @param undoToken Token info,will pass to callback to help you to undo.
+	 *
+	 * @return the shown UndoBarController.
+	 */
+	public static UndoBarController showQuantity(final ViewGroup container, final int pluralsRes, final int quantity,
+	                                             final boolean immediate, final boolean dismissOnOutsideTouch,
+	                                             final Parcelable undoToken) {
+		final UndoBarController undo = UndoBarController.ensureView(container);
+		undo.showUndoBar(undo.getNextStyle(), immediate, dismissOnOutsideTouch, null, pluralsRes, true, quantity,
+				undoToken);
+		return undo;
+	}
+
+	/**
+	 * Quick method to update the message and progress of the UndoBar visible in an Activity.
+	 * See {@link #update(CharSequence, int)}.
+	 *
+	 * @param activity Activity holding the UndoBar.
+	 * @param message The new message, or null to keep the current one.
+	 * @param progress Progress between 0 and 100, or {@link #NO_PROGRESS} to hide the progress bar.
+	 */
+	public static void update(final Activity activity, final CharSequence message, final int progress) {
+		final UndoBarController undo = find(activity);
+		if(undo != null)
+			undo.update(message, progress);
+	}
+
+	/**
+	 * Quick method to update the message and progress of the UndoBar visible inside a ViewGroup.
+	 * See {@link #update(CharSequence, int)}.
+	 *
+	 * @param container The ViewGroup holding the UndoBar.
+	 * @param message The new message, or null to keep the current one.
+	 * @param progress Progress between 0 and 100, or {@link #NO_PROGRESS} to hide the progress bar.
+	 */
+	public static void update(final ViewGroup container, final CharSequence message, final int progress) {
+		final UndoBarController undo = find(container);
+		if(undo != null)
+			undo.update(message, progress);
+	}
+
+	/**
+	 * Quick method to show a retry bar into an Activity. See {@link #showRetry(CharSequence, RetryTask)}.
+	 *
+	 * @param activity Activity to hold this view.
+	 * @param message The message will be shown in left side in undo bar.
+	 * @param task The work to retry, run on a shared background executor.
+	 *
+	 * @return the shown UndoBarController.
+	 */
+	public static UndoBarController showRetry(final Activity activity, final CharSequence message,
+	                                          final RetryTask task) {
+		final UndoBarController undo = UndoBarController.ensureView(activity);
+		undo.showRetry(message, task);
+		return undo;
+	}
+
+	/**
+	 * Quick method to show a retry bar inside a ViewGroup. See {@link #showRetry(CharSequence, RetryTask)}.
+	 *
+	 * @param container The ViewGroup that will contain the UndoBar.
+	 * @param message The message will be shown in left side in undo bar.
+	 * @param task The work to retry, run on a shared background executor.
+	 *
+	 * @return the shown UndoBarController.
+	 */
+	public static UndoBarController showRetry(final ViewGroup container, final CharSequence message,
+	                                          final RetryTask task) {
+		final UndoBarController undo = UndoBarController.ensureView(container);
+		undo.showRetry(message, task);
+		return undo;
+	}
+
+	/**
+	 * Thread-safe variant of {@link #show(Activity, CharSequence, boolean, boolean, Parcelable)}, which can be
+	 * called from any thread. The request is handed over to the main thread without blocking, and requests made
+	 * close together are handled together: a hide cancels the show requests made before it for the same Activity.
+	 */
+	public static void postShow(final Activity activity, final CharSequence message, final boolean immediate,
+	                            final boolean dismissOnOutsideTouch, final Parcelable undoToken) {
+		UndoBarDispatcher.get().postShow(activity, message, immediate, dismissOnOutsideTouch, undoToken);
+	}
+
+	/**
+	 * Thread-safe variant of {@link #show(ViewGroup, CharSequence, boolean, boolean, Parcelable)}.
+	 * See {@link #postShow(Activity, CharSequence, boolean, boolean, Parcelable)}.
+	 */
+	public static void postShow(final ViewGroup container, final CharSequence message, final boolean immediate,
+	                            final boolean dismissOnOutsideTouch, final Parcelable undoToken) {
+		UndoBarDispatcher.get().postShow(container, message, immediate, dismissOnOutsideTouch, undoToken);
+	}
+
+	/**
+	 * Thread-safe variant of {@link #hide(Activity, boolean)}, which can be called from any thread.
+	 */
+	public static void postHide(final Activity activity, final boolean immediate) {
+		UndoBarDispatcher.get().postHide(activity, immediate);
+	}
+
+	/**
+	 * Thread-safe variant of {@link #hide(ViewGroup, boolean)}, which can be called from any thread.
+	 */
+	public static void postHide(final ViewGroup container, final boolean immediate) {
+		UndoBarDispatcher.get().postHide(container, immediate);
+	}
+
+	/**
+	 * Commit the token of a posted show request that was collapsed before it was shown.
+	 */
+	static void commitDropped(final Object target, final Parcelable token) {
+		if(token == null)
+			return;
+
+		final UndoBarController undo = target instanceof Activity ?
+				find((Activity)target) : find((ViewGroup)target);
+		if(undo != null)
+			undo.commit(token);
+		else
+			UndoBarEntry.release(token);
+	}
+
 	public static void hide(final Activity activity, final boolean immediate) {
-		hide((ViewGroup)activity.getWindow().getDecorView(), immediate);
+		hide(find(activity), immediate);
 	}
 	public static void hide(final ViewGroup container, final boolean immediate) {
-		final UndoBarController undo = (UndoBarController)container.findViewById(R.id._undobar_controller);
+		hide(find(container), immediate);
+	}
+	private static void hide(final UndoBarController undo, final boolean immediate) {
 		if (undo != null) {
-			undo.hideUndoBar(immediate);
+			// Drop the pending bars too, an explicit hide dismisses everything.
+			undo.hideAll(immediate);
 		}
 	}
 }
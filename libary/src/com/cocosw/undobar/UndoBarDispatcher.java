@@ -0,0 +1,144 @@
+package com.cocosw.undobar;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcelable;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands show and hide requests made on any thread over to the main thread.
+ *
+ * Producers add to a lock-free queue and post a drain message only if none is pending, so they never block and a
+ * burst of requests is handled by a single main-thread message. Before running a batch, a hide collapses the
+ * earlier requests for the same target: show, hide, show ends up as hide, show. Requests for an Activity that is
+ * finishing by then are dropped, committing the shown tokens.
+ */
+final class UndoBarDispatcher implements Runnable {
+	private static final UndoBarDispatcher sInstance = new UndoBarDispatcher();
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final ConcurrentLinkedQueue<Request> mRequests = new ConcurrentLinkedQueue<Request>();
+	private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+
+	// Main thread only.
+	private final ArrayList<Request> mBatch = new ArrayList<Request>();
+	private final ArrayList<Object> mHiddenTargets = new ArrayList<Object>();
+
+	private static final class Request {
+		// Activity or ViewGroup.
+		final Object target;
+		final boolean show;
+		final CharSequence message;
+		final boolean immediate;
+		final boolean dismissOnOutsideTouch;
+		final Parcelable token;
+
+		Request(final Object target, final boolean show, final CharSequence message, final boolean immediate,
+		        final boolean dismissOnOutsideTouch, final Parcelable token) {
+			this.target = target;
+			this.show = show;
+			this.message = message;
+			this.immediate = immediate;
+			this.dismissOnOutsideTouch = dismissOnOutsideTouch;
+			this.token = token;
+		}
+	}
+
+	static UndoBarDispatcher get() {
+		return sInstance;
+	}
+
+	private UndoBarDispatcher() {
+	}
+
+	void postShow(final Object target, final CharSequence message, final boolean immediate,
+	              final boolean dismissOnOutsideTouch, final Parcelable token) {
+		post(new Request(target, true, message, immediate, dismissOnOutsideTouch, token));
+	}
+
+	void postHide(final Object target, final boolean immediate) {
+		post(new Request(target, false, null, immediate, false, null));
+	}
+
+	private void post(final Request request) {
+		mRequests.offer(request);
+		if(mScheduled.compareAndSet(false, true))
+			mHandler.post(this);
+	}
+
+	@Override
+	public void run() {
+		// Cleared first: requests added from now on post a new message.
+		mScheduled.set(false);
+		Request request;
+		while((request = mRequests.poll()) != null)
+			mBatch.add(request);
+
+		// Walk back from the latest request, dropping what a later hide makes redundant.
+		for(int i = mBatch.size() - 1; i >= 0; i--) {
+			request = mBatch.get(i);
+			final boolean hidden = mHiddenTargets.contains(request.target);
+			if(request.show && hidden) {
+				// Never shown, so it can no longer be undone.
+				UndoBarController.commitDropped(request.target, request.token);
+				mBatch.set(i, null);
+			}
+			else if(!request.show) {
+				if(hidden)
+					mBatch.set(i, null);
+				else
+					mHiddenTargets.add(request.target);
+			}
+		}
+
+		for(int i = 0; i < mBatch.size(); i++) {
+			request = mBatch.get(i);
+			if(request != null)
+				dispatch(request);
+		}
+		mBatch.clear();
+		mHiddenTargets.clear();
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+	private static boolean isGone(final Activity activity) {
+		return activity.isFinishing() ||
+				(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && activity.isDestroyed());
+	}
+
+	private static void dispatch(final Request request) {
+		if(request.target instanceof Activity) {
+			final Activity activity = (Activity)request.target;
+			if(isGone(activity)) {
+				// Posted before the Activity went away, it would be shown in a window that is going away too.
+				if(request.show)
+					UndoBarController.commitDropped(activity, request.token);
+				return;
+			}
+			if(request.show) {
+				UndoBarController.show(activity, request.message, request.immediate, request.dismissOnOutsideTouch,
+						request.token);
+			}
+			else {
+				UndoBarController.hide(activity, request.immediate);
+			}
+		}
+		else {
+			final ViewGroup container = (ViewGroup)request.target;
+			if(request.show) {
+				UndoBarController.show(container, request.message, request.immediate, request.dismissOnOutsideTouch,
+						request.token);
+			}
+			else {
+				UndoBarController.hide(container, request.immediate);
+			}
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package com.cocosw.undobar;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.text.TextUtils;
+
+/**
+ * A pending undo bar: its style, message and every token merged into it.
+ *
+ * Entries are recycled through a small pool once their bar is undone or committed, so showing and hiding bars does
+ * not allocate. Main thread only.
+ */
+final class UndoBarEntry {
+	// How a token is marshalled.
+	private static final int TOKEN_INLINE = 0;
+	private static final int TOKEN_STORED = 1;
+
+	private static final int MAX_POOL_SIZE = 8;
+	// Token arrays grown past this are not kept when recycled.
+	private static final int MAX_RECYCLED_TOKENS = 16;
+
+	// Recycled entries, linked through mNext.
+	private static UndoBarEntry sPool;
+	private static int sPoolSize = 0;
+	private UndoBarEntry mNext;
+	private boolean mInPool = false;
+
+	UndoBarStyle style;
+	CharSequence message;
+	// Message resolved when bound instead, see setMessageRes().
+	int messageRes = UndoBarStyle.IGNORE_RESOURCE;
+	boolean quantityRes;
+	long messageArg;
+	int progress = UndoBarController.NO_PROGRESS;
+	boolean immediate;
+	boolean dismissOnOutsideTouch;
+
+	// Number of show requests coalesced into this entry.
+	int count;
+	// Number of identical show requests folded into this entry, and when the last one was made.
+	int occurrences = 1;
+	long lastShownAt;
+
+	private Parcelable[] mTokens = new Parcelable[4];
+	private int mTokenCount;
+
+	UndoBarEntry(final UndoBarStyle style, final CharSequence message, final boolean immediate,
+	             final boolean dismissOnOutsideTouch, final Parcelable token) {
+		this.style = style;
+		this.message = message;
+		this.immediate = immediate;
+		this.dismissOnOutsideTouch = dismissOnOutsideTouch;
+		count = 1;
+		addToken(token);
+	}
+
+	/**
+	 * @return a recycled entry set up for a new bar, or a new one if none is left.
+	 */
+	static UndoBarEntry obtain(final UndoBarStyle style, final CharSequence message, final boolean immediate,
+	                           final boolean dismissOnOutsideTouch, final Parcelable token) {
+		final UndoBarEntry entry = sPool;
+		if(entry == null)
+			return new UndoBarEntry(style, message, immediate, dismissOnOutsideTouch, token);
+
+		sPool = entry.mNext;
+		sPoolSize--;
+		entry.mNext = null;
+		entry.mInPool = false;
+		entry.style = style;
+		entry.message = message;
+		entry.immediate = immediate;
+		entry.dismissOnOutsideTouch = dismissOnOutsideTouch;
+		entry.count = 1;
+		entry.addToken(token);
+		return entry;
+	}
+
+	/**
+	 * Reset the entry and put it back in the pool, once its bar was undone or committed and nothing refers to it.
+	 */
+	void recycle() {
+		if(mInPool)
+			return;
+
+		style = null;
+		message = null;
+		messageRes = UndoBarStyle.IGNORE_RESOURCE;
+		quantityRes = false;
+		messageArg = 0;
+		progress = UndoBarController.NO_PROGRESS;
+		immediate = false;
+		dismissOnOutsideTouch = false;
+		count = 0;
+		occurrences = 1;
+		lastShownAt = 0;
+		if(mTokens.length > MAX_RECYCLED_TOKENS) {
+			mTokens = new Parcelable[4];
+		}
+		else {
+			for(int i = 0; i < mTokenCount; i++)
+				mTokens[i] = null;
+		}
+		mTokenCount = 0;
+
+		if(sPoolSize < MAX_POOL_SIZE) {
+			mNext = sPool;
+			sPool = this;
+			sPoolSize++;
+			mInPool = true;
+		}
+	}
+
+	/**
+	 * Copy an entry, for saved state that outlives it once it is recycled.
+	 */
+	UndoBarEntry(final UndoBarEntry other) {
+		style = other.style;
+		message = other.message;
+		messageRes = other.messageRes;
+		quantityRes = other.quantityRes;
+		messageArg = other.messageArg;
+		progress = other.progress;
+		immediate = other.immediate;
+		dismissOnOutsideTouch = other.dismissOnOutsideTouch;
+		count = other.count;
+		occurrences = other.occurrences;
+		lastShownAt = other.lastShownAt;
+		mTokens = new Parcelable[Math.max(other.mTokenCount, 4)];
+		System.arraycopy(other.mTokens, 0, mTokens, 0, other.mTokenCount);
+		mTokenCount = other.mTokenCount;
+	}
+
+	int priority() {
+		return style != null ? style.priority : UndoBarStyle.PRIORITY_NORMAL;
+	}
+
+	/**
+	 * Merge another show request of the same kind into this entry.
+	 */
+	void merge(final CharSequence message, final boolean immediate, final boolean dismissOnOutsideTouch,
+	           final Parcelable token) {
+		this.message = message;
+		messageRes = UndoBarStyle.IGNORE_RESOURCE;
+		this.immediate = immediate;
+		this.dismissOnOutsideTouch = dismissOnOutsideTouch;
+		count++;
+		occurrences = 1;
+		addToken(token);
+	}
+
+	/**
+	 * Fold a repeated show request into this entry, keeping its message.
+	 */
+	void repeat(final Parcelable token, final long now) {
+		occurrences++;
+		lastShownAt = now;
+		addToken(token);
+	}
+
+	/**
+	 * @return whether a show request would show the same message as this entry.
+	 */
+	boolean hasMessage(final CharSequence message, final int res, final boolean quantity, final long arg) {
+		if(res != UndoBarStyle.IGNORE_RESOURCE)
+			return messageRes == res && quantityRes == quantity && messageArg == arg;
+		return messageRes == UndoBarStyle.IGNORE_RESOURCE && TextUtils.equals(message, this.message);
+	}
+
+	/**
+	 * Use a string or plurals resource formatted with a number as message, in place of {@link #message}.
+	 */
+	void setMessageRes(final int res, final boolean quantity, final long arg) {
+		message = null;
+		messageRes = res;
+		quantityRes = quantity;
+		messageArg = arg;
+	}
+
+	private void addToken(final Parcelable token) {
+		if(token == null)
+			return;
+
+		if(mTokenCount == mTokens.length) {
+			final Parcelable[] tokens = new Parcelable[mTokenCount * 2];
+			System.arraycopy(mTokens, 0, tokens, 0, mTokenCount);
+			mTokens = tokens;
+		}
+		mTokens[mTokenCount++] = token;
+	}
+
+	int tokenCount() {
+		return mTokenCount;
+	}
+
+	Parcelable tokenAt(final int index) {
+		return mTokens[index];
+	}
+
+	/**
+	 * @return the index of a token in this entry, or -1.
+	 */
+	int indexOfToken(final Parcelable token) {
+		for(int i = 0; i < mTokenCount; i++) {
+			if(mTokens[i] == token)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Remove a token that was undone on its own, searching from the most recent one.
+	 *
+	 * @return whether the token was part of this entry.
+	 */
+	boolean removeToken(final Parcelable token) {
+		for(int i = mTokenCount - 1; i >= 0; i--) {
+			if(mTokens[i] == token) {
+				System.arraycopy(mTokens, i + 1, mTokens, i, mTokenCount - i - 1);
+				mTokens[--mTokenCount] = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the most recently merged token, or null if there is none.
+	 */
+	Parcelable lastToken() {
+		return mTokenCount > 0 ? mTokens[mTokenCount - 1] : null;
+	}
+
+	/**
+	 * @return a copy of all tokens, oldest first.
+	 */
+	Parcelable[] tokens() {
+		final Parcelable[] tokens = new Parcelable[mTokenCount];
+		System.arraycopy(mTokens, 0, tokens, 0, mTokenCount);
+		return tokens;
+	}
+
+	/*
+	 * Parcel-related methods, used by the controller's saved state.
+	 */
+
+	UndoBarEntry(final Parcel source) {
+		style = source.readParcelable(UndoBarStyle.class.getClassLoader());
+		message = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(source);
+		messageRes = source.readInt();
+		quantityRes = source.readInt() == 1;
+		messageArg = source.readLong();
+		progress = source.readInt();
+		immediate = source.readInt() == 1;
+		dismissOnOutsideTouch = source.readInt() == 1;
+		count = source.readInt();
+		occurrences = source.readInt();
+
+		// Unmarshall tokens.
+		final int tokenCount = source.readInt();
+		mTokens = new Parcelable[Math.max(tokenCount, 4)];
+		for(int i = 0; i < tokenCount; i++) {
+			final Parcelable token = readToken(source);
+			// Tokens lost with their spill file are skipped.
+			if(token != null)
+				mTokens[mTokenCount++] = token;
+		}
+	}
+
+	void writeToParcel(final Parcel dest, final int flags) {
+		dest.writeParcelable(style, flags);
+		TextUtils.writeToParcel(message, dest, flags);
+		dest.writeInt(messageRes);
+		dest.writeInt(quantityRes ? 1 : 0);
+		dest.writeLong(messageArg);
+		dest.writeInt(progress);
+		dest.writeInt(immediate ? 1 : 0);
+		dest.writeInt(dismissOnOutsideTouch ? 1 : 0);
+		dest.writeInt(count);
+		dest.writeInt(occurrences);
+
+		// Marshall tokens.
+		dest.writeInt(mTokenCount);
+		for(int i = 0; i < mTokenCount; i++)
+			writeToken(dest, mTokens[i], flags);
+	}
+
+	/**
+	 * Drop the tokens from the token store and the journal once they were undone or committed.
+	 */
+	void release() {
+		for(int i = 0; i < mTokenCount; i++)
+			release(mTokens[i]);
+	}
+
+	static void release(final Parcelable token) {
+		final UndoTokenStore store = UndoBarController.getTokenStore();
+		if(store != null)
+			store.release(token);
+		final UndoJournal journal = UndoBarController.getJournal();
+		if(journal != null)
+			journal.resolve(token);
+	}
+
+	/**
+	 * Marshall a token, only its id if it is kept in a token store.
+	 */
+	static void writeToken(final Parcel dest, final Parcelable token, final int flags) {
+		final UndoTokenStore store = UndoBarController.getTokenStore();
+		if(store != null) {
+			dest.writeInt(TOKEN_STORED);
+			dest.writeLong(store.put(token));
+		}
+		else {
+			dest.writeInt(TOKEN_INLINE);
+			UndoTokens.write(dest, token, flags);
+		}
+	}
+
+	/**
+	 * @return the unmarshalled token, or null if it was lost with its spill file.
+	 */
+	static Parcelable readToken(final Parcel source) {
+		if(source.readInt() == TOKEN_STORED) {
+			final UndoTokenStore store = UndoBarController.getTokenStore();
+			if(store == null)
+				throw new IllegalStateException("Undo token was saved in a token store, but none is set.");
+			return store.get(source.readLong());
+		}
+
+		return UndoTokens.read(source);
+	}
+}
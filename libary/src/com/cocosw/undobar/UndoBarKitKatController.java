@@ -16,8 +16,21 @@ public class UndoBarKitKatController extends UndoBarController {
 		super(context, attrs);
 	}
 
+	/**
+	 * Load the KitKat undo bar font on a background thread, so creating controllers does no font I/O.
+	 * Optional, usually called from Application's onCreate() method.
+	 *
+	 * @param context Any context, only its application context is kept.
+	 */
+	public static void preload(final Context context) {
+		UndoBarTypefaces.preload(context, UndoBarTypefaces.ROBOTO_CONDENSED);
+	}
+
 	protected void inflateUndoBar(Context context) {
-		final Typeface typeFace = Typeface.createFromAsset(context.getAssets(), "fonts/RobotoCondensed-Regular.ttf");
+		if(inflateFlatView(context, true))
+			return;
+
+		final Typeface typeFace = UndoBarTypefaces.get(context, UndoBarTypefaces.ROBOTO_CONDENSED);
 
 		LayoutInflater.from(context).inflate(R.layout.undobar_kitkat, this, true);
 
@@ -34,45 +47,45 @@ public class UndoBarKitKatController extends UndoBarController {
 				new View.OnClickListener() {
 					@Override
 					public void onClick(final View view) {
-						if (mUndoListener != null) {
-							mUndoListener.onUndo(mUndoToken);
-						}
-						hideUndoBar(false);
+						performUndo();
 					}
 				});
 	}
 
-	protected void setStyle(UndoBarStyle style) {
-		if(style != null && !style.equals(mStyle)) {
-			mStyle = style;
-
-			final String buttonText;
-			if(mStyle.titleRes != UndoBarStyle.IGNORE_RESOURCE &&
-				(buttonText = getResources().getString(mStyle.titleRes)) != null) {
-				// Show button wrapper (divider, icon, button text).
-				mButtonWrapper.setVisibility(View.VISIBLE);
-
-				mButton.setText(buttonText);
-
-				if(mStyle.iconRes != UndoBarStyle.IGNORE_RESOURCE)
-					mUndoIcon.setImageResource(mStyle.iconRes);
-
-				// Change button background, but preserve the padding.
-				if(mStyle.buttonBgRes != UndoBarStyle.IGNORE_RESOURCE) {
-					final int paddingLeft, paddingRight;
-					paddingLeft = mButtonWrapper.getPaddingLeft();
-					paddingRight = mButtonWrapper.getPaddingRight();
-					mButtonWrapper.setBackgroundResource(mStyle.buttonBgRes);
-					mButtonWrapper.setPadding(paddingLeft, 0, paddingRight, 0);
-				}
-			}
-			else {
-				// Hide button wrapper (divider, icon, button text).
-				mButtonWrapper.setVisibility(View.GONE);
-			}
+	@SuppressWarnings("deprecation")
+	@Override
+	protected void applyStyle(UndoBarStyle style) {
+		if(isFlat()) {
+			super.applyStyle(style);
+			return;
+		}
 
-			if(mStyle.bgRes != UndoBarStyle.IGNORE_RESOURCE)
-				findViewById(R.id.undobar).setBackgroundResource(mStyle.bgRes);
+		final UndoBarStyleCache.Resolved resolved = UndoBarStyleCache.get(getContext(), style);
+		final UndoBarStyleCache.Drawables drawables = mStyleDrawables.get(getResources(), style, resolved);
+		if(resolved.title != null) {
+			// Show button wrapper (divider, icon, button text).
+			mButtonWrapper.setVisibility(View.VISIBLE);
+
+			mButton.setText(resolved.title);
+
+			if(drawables.icon != null)
+				mUndoIcon.setImageDrawable(drawables.icon);
+
+			// Change button background, but preserve the padding.
+			if(drawables.buttonBackground != null) {
+				final int paddingLeft, paddingRight;
+				paddingLeft = mButtonWrapper.getPaddingLeft();
+				paddingRight = mButtonWrapper.getPaddingRight();
+				mButtonWrapper.setBackgroundDrawable(drawables.buttonBackground);
+				mButtonWrapper.setPadding(paddingLeft, 0, paddingRight, 0);
+			}
+		}
+		else {
+			// Hide button wrapper (divider, icon, button text).
+			mButtonWrapper.setVisibility(View.GONE);
 		}
+
+		if(drawables.background != null)
+			findViewById(R.id.undobar).setBackgroundDrawable(drawables.background);
 	}
 }
@@ -0,0 +1,77 @@
+package com.cocosw.undobar;
+
+/**
+ * Formats a message template with a single number into a reused buffer, for TextView.setText(char[], int, int).
+ *
+ * Only what undo messages need is supported: every %d, %1$d, %s or %1$s is replaced with the number, in plain
+ * ASCII digits, and %% with a percent sign. Once the buffer is large enough, formatting never allocates.
+ */
+final class UndoBarMessageFormat {
+	private char[] mBuffer = new char[64];
+	private int mLength;
+
+	char[] buffer() {
+		return mBuffer;
+	}
+
+	/**
+	 * @return the length of the formatted message in {@link #buffer()}.
+	 */
+	int format(final CharSequence template, final long value) {
+		mLength = 0;
+		final int length = template.length();
+		for(int i = 0; i < length; i++) {
+			final char c = template.charAt(i);
+			if(c == '%' && i + 1 < length) {
+				if(template.charAt(i + 1) == '%') {
+					append('%');
+					i++;
+					continue;
+				}
+
+				int j = i + 1;
+				// Skip the argument index.
+				if(j + 1 < length && template.charAt(j) == '1' && template.charAt(j + 1) == '$')
+					j += 2;
+				if(j < length && (template.charAt(j) == 'd' || template.charAt(j) == 's')) {
+					appendNumber(value);
+					i = j;
+					continue;
+				}
+			}
+			append(c);
+		}
+		return mLength;
+	}
+
+	private void append(final char c) {
+		ensureCapacity(mLength + 1);
+		mBuffer[mLength++] = c;
+	}
+
+	private void appendNumber(final long value) {
+		// Count digits on the negative value, which also holds Long.MIN_VALUE.
+		long negative = value < 0 ? value : -value;
+		int digits = 1;
+		for(long rest = negative / 10; rest != 0; rest /= 10)
+			digits++;
+
+		final int sign = value < 0 ? 1 : 0;
+		ensureCapacity(mLength + sign + digits);
+		if(sign != 0)
+			mBuffer[mLength] = '-';
+		for(int i = mLength + sign + digits - 1; i >= mLength + sign; i--) {
+			mBuffer[i] = (char)('0' - negative % 10);
+			negative /= 10;
+		}
+		mLength += sign + digits;
+	}
+
+	private void ensureCapacity(final int capacity) {
+		if(capacity > mBuffer.length) {
+			final char[] buffer = new char[Math.max(capacity, mBuffer.length * 2)];
+			System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+			mBuffer = buffer;
+		}
+	}
+}
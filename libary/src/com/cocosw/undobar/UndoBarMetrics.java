@@ -0,0 +1,47 @@
+package com.cocosw.undobar;
+
+/**
+ * Receives lifecycle and latency events of every undo bar. Install it with
+ * {@link UndoBarController#setMetrics(UndoBarMetrics)}; {@link UndoBarStats} records them without allocating.
+ *
+ * Events are reported on the main thread, and durations are in nanoseconds.
+ */
+public interface UndoBarMetrics {
+	/*
+	 * How a bar ended.
+	 */
+	int DISMISS_UNDO = 0;
+	int DISMISS_TIMEOUT = 1;
+	int DISMISS_OUTSIDE_TOUCH = 2;
+	int DISMISS_HIDE = 3;
+	// Pushed out of a full queue of pending bars.
+	int DISMISS_DROPPED = 4;
+	// Swiped away by the user.
+	int DISMISS_SWIPE = 5;
+	int DISMISS_REASON_COUNT = 6;
+
+	/**
+	 * The undo bar layout was inflated.
+	 */
+	void onInflate(long nanos);
+
+	/**
+	 * A style was applied to the bar's views.
+	 */
+	void onApplyStyle(long nanos);
+
+	/**
+	 * A bar was drawn for the first time since it was asked to show.
+	 */
+	void onFirstFrame(long nanos);
+
+	/**
+	 * A bar became fully visible, once its show animation ended, since it was asked to show.
+	 */
+	void onVisible(long nanos);
+
+	/**
+	 * A bar ended, see the DISMISS_* reasons.
+	 */
+	void onDismiss(int reason);
+}
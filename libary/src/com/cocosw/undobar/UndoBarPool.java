@@ -0,0 +1,81 @@
+package com.cocosw.undobar;
+
+import android.app.Activity;
+import android.content.Context;
+import android.view.View;
+
+/**
+ * Detached, already inflated controllers waiting to be reused by another container of the same Activity.
+ *
+ * Each Activity has its own bounded pool, kept as a tag of its decor view so it goes away with its window.
+ * Controllers are only handed out for the exact Context, and so theme, they were inflated with.
+ * Main thread only.
+ */
+final class UndoBarPool {
+	static final int MAX_SIZE = 4;
+
+	private static int sHits = 0;
+	private static int sMisses = 0;
+
+	private final UndoBarController[] mControllers = new UndoBarController[MAX_SIZE];
+	private int mSize = 0;
+
+	private UndoBarPool() {
+	}
+
+	/**
+	 * @return a pooled controller inflated with the Context, or null if there is none.
+	 */
+	static UndoBarController acquire(final Context context) {
+		final UndoBarPool pool = get(context, false);
+		if(pool != null) {
+			for(int i = pool.mSize - 1; i >= 0; i--) {
+				final UndoBarController undo = pool.mControllers[i];
+				if(undo.getContext() == context) {
+					System.arraycopy(pool.mControllers, i + 1, pool.mControllers, i, --pool.mSize - i);
+					pool.mControllers[pool.mSize] = null;
+					sHits++;
+					return undo;
+				}
+			}
+		}
+		sMisses++;
+		return null;
+	}
+
+	/**
+	 * @return whether the controller was pooled.
+	 */
+	static boolean release(final UndoBarController undo) {
+		final UndoBarPool pool = get(undo.getContext(), true);
+		if(pool == null || pool.mSize == MAX_SIZE)
+			return false;
+
+		pool.mControllers[pool.mSize++] = undo;
+		return true;
+	}
+
+	static int getHitCount() {
+		return sHits;
+	}
+
+	static int getMissCount() {
+		return sMisses;
+	}
+
+	private static UndoBarPool get(final Context context, final boolean create) {
+		final Activity activity = UndoBarController.getActivity(context);
+		if(activity == null || activity.isFinishing())
+			return null;
+		final View decorView = activity.getWindow().peekDecorView();
+		if(decorView == null)
+			return null;
+
+		UndoBarPool pool = (UndoBarPool)decorView.getTag(R.id._undobar_pool);
+		if(pool == null && create) {
+			pool = new UndoBarPool();
+			decorView.setTag(R.id._undobar_pool, pool);
+		}
+		return pool;
+	}
+}
@@ -0,0 +1,114 @@
+package com.cocosw.undobar;
+
+/**
+ * Bounded queue of pending undo bars, ordered by priority and then by arrival.
+ */
+final class UndoBarQueue {
+	static final int DEFAULT_CAPACITY = 8;
+
+	private final UndoBarEntry[] mEntries;
+	private int mSize;
+
+	UndoBarQueue(final int capacity) {
+		mEntries = new UndoBarEntry[capacity];
+	}
+
+	int size() {
+		return mSize;
+	}
+
+	boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	UndoBarEntry get(final int index) {
+		return mEntries[index];
+	}
+
+	/**
+	 * @return the pending entry with the given style, or null if there is none.
+	 */
+	UndoBarEntry find(final UndoBarStyle style) {
+		for(int i = 0; i < mSize; i++) {
+			final UndoBarStyle entryStyle = mEntries[i].style;
+			if(entryStyle == style || (entryStyle != null && entryStyle.equals(style)))
+				return mEntries[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Insert an entry behind every pending entry of the same or higher priority.
+	 *
+	 * @return the entry dropped because the queue was full (possibly the given one), or null.
+	 */
+	UndoBarEntry offer(final UndoBarEntry entry) {
+		final int priority = entry.priority();
+		int index = mSize;
+		while(index > 0 && mEntries[index - 1].priority() < priority)
+			index--;
+		return insert(index, entry);
+	}
+
+	/**
+	 * Insert an entry ahead of every pending entry of the same or lower priority.
+	 * Used to put back a bar that was preempted while visible.
+	 *
+	 * @return the entry dropped because the queue was full (possibly the given one), or null.
+	 */
+	UndoBarEntry offerFirst(final UndoBarEntry entry) {
+		final int priority = entry.priority();
+		int index = 0;
+		while(index < mSize && mEntries[index].priority() > priority)
+			index++;
+		return insert(index, entry);
+	}
+
+	private UndoBarEntry insert(final int index, final UndoBarEntry entry) {
+		UndoBarEntry dropped = null;
+		if(mSize == mEntries.length) {
+			// Full: drop the last entry, which has the lowest priority and arrived last.
+			if(index == mSize)
+				return entry;
+			dropped = mEntries[--mSize];
+			mEntries[mSize] = null;
+		}
+		System.arraycopy(mEntries, index, mEntries, index + 1, mSize - index);
+		mEntries[index] = entry;
+		mSize++;
+		return dropped;
+	}
+
+	/**
+	 * @return the next entry to show, or null if the queue is empty.
+	 */
+	UndoBarEntry poll() {
+		if(mSize == 0)
+			return null;
+
+		final UndoBarEntry entry = mEntries[0];
+		System.arraycopy(mEntries, 1, mEntries, 0, --mSize);
+		mEntries[mSize] = null;
+		return entry;
+	}
+
+	/**
+	 * @return whether the entry was pending.
+	 */
+	boolean remove(final UndoBarEntry entry) {
+		for(int i = 0; i < mSize; i++) {
+			if(mEntries[i] == entry) {
+				System.arraycopy(mEntries, i + 1, mEntries, i, --mSize - i);
+				mEntries[mSize] = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void clear() {
+		for(int i = 0; i < mSize; i++)
+			mEntries[i] = null;
+		mSize = 0;
+	}
+}
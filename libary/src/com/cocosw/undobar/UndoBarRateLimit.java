@@ -0,0 +1,44 @@
+package com.cocosw.undobar;
+
+import android.os.SystemClock;
+
+/**
+ * Token bucket limiting how often bars of a style are shown: up to a burst of shows, then one more per interval.
+ */
+final class UndoBarRateLimit {
+	private final int mCapacity;
+	private final long mInterval;
+	private int mPermits;
+	private long mRefilledAt;
+
+	UndoBarRateLimit(final int capacity, final long interval) {
+		if(capacity <= 0 || interval <= 0)
+			throw new IllegalArgumentException("Capacity and interval must be positive.");
+		mCapacity = capacity;
+		mInterval = interval;
+		mPermits = capacity;
+		mRefilledAt = SystemClock.uptimeMillis();
+	}
+
+	/**
+	 * @return whether a bar may be shown now, using up a permit if so.
+	 */
+	boolean tryAcquire(final long now) {
+		final long refills = (now - mRefilledAt) / mInterval;
+		if(refills > 0) {
+			if(mPermits + refills >= mCapacity) {
+				mPermits = mCapacity;
+				mRefilledAt = now;
+			}
+			else {
+				mPermits += refills;
+				mRefilledAt += refills * mInterval;
+			}
+		}
+
+		if(mPermits == 0)
+			return false;
+		mPermits--;
+		return true;
+	}
+}
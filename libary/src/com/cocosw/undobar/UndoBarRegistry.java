@@ -0,0 +1,45 @@
+package com.cocosw.undobar;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Maps Activities and containers to their {@link UndoBarController}, so the static API
+ * does not search the view hierarchy on every call.
+ *
+ * Keys and controllers are weakly held, and a controller's entries are removed when it is detached.
+ * Main thread only.
+ */
+final class UndoBarRegistry {
+	private static final WeakHashMap<Object, WeakReference<UndoBarController>> sControllers =
+			new WeakHashMap<Object, WeakReference<UndoBarController>>();
+
+	private UndoBarRegistry() {
+	}
+
+	/**
+	 * @return the controller registered for an Activity or container, or null if there is none
+	 * or it was removed from its view tree since.
+	 */
+	static UndoBarController get(final Object key) {
+		final WeakReference<UndoBarController> reference = sControllers.get(key);
+		final UndoBarController undo = reference != null ? reference.get() : null;
+		return undo != null && undo.getParent() != null ? undo : null;
+	}
+
+	static void put(final Object key, final UndoBarController undo) {
+		sControllers.put(key, new WeakReference<UndoBarController>(undo));
+	}
+
+	static void remove(final UndoBarController undo) {
+		final Iterator<Map.Entry<Object, WeakReference<UndoBarController>>> iterator =
+				sControllers.entrySet().iterator();
+		while(iterator.hasNext()) {
+			final UndoBarController registered = iterator.next().getValue().get();
+			if(registered == null || registered == undo)
+				iterator.remove();
+		}
+	}
+}
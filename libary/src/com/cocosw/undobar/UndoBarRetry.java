@@ -0,0 +1,196 @@
+package com.cocosw.undobar;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries the task of a retry bar with exponential backoff, counting down on the bar until each attempt.
+ *
+ * Attempts wait a random delay between half and all of base * 2^attempt, capped, so that bars failing together
+ * don't retry together. Tasks of all bars share a small executor, which caps the number of concurrent retries.
+ * Main thread only, except for the task itself.
+ */
+final class UndoBarRetry implements Runnable {
+	private static final String TAG = "UndoBarRetry";
+	private static final int MAX_CONCURRENT_RETRIES = 2;
+	private static final int MAX_QUEUED_RETRIES = 32;
+
+	private static long sBaseDelay = 1000;
+	private static long sMaxDelay = 60000;
+	private static int sMaxAttempts = 5;
+
+	private static final Random sRandom = new Random();
+	private static final Handler sHandler = new Handler(Looper.getMainLooper());
+	private static ThreadPoolExecutor sExecutor;
+
+	final UndoBarEntry entry;
+	private final UndoBarController mController;
+	private final CharSequence mMessage;
+	private final UndoBarController.RetryTask mTask;
+
+	private int mAttempt = 0;
+	private long mDeadline;
+	private Future<?> mRunning;
+	private boolean mCanceled = false;
+
+	UndoBarRetry(final UndoBarController controller, final UndoBarEntry entry, final CharSequence message,
+	             final UndoBarController.RetryTask task) {
+		mController = controller;
+		this.entry = entry;
+		mMessage = message;
+		mTask = task;
+	}
+
+	static void setPolicy(final long baseDelay, final long maxDelay, final int maxAttempts) {
+		if(baseDelay <= 0 || maxDelay < baseDelay || maxAttempts <= 0)
+			throw new IllegalArgumentException("Invalid retry policy.");
+		sBaseDelay = baseDelay;
+		sMaxDelay = maxDelay;
+		sMaxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Count down to the next attempt.
+	 */
+	void schedule() {
+		final long cap = Math.min(sMaxDelay, sBaseDelay << Math.min(mAttempt, 30));
+		final long delay = cap / 2 + (long)(sRandom.nextDouble() * (cap / 2));
+		mDeadline = SystemClock.uptimeMillis() + delay;
+		run();
+	}
+
+	/**
+	 * Skip the countdown, e.g. when the retry button is pressed.
+	 */
+	void retryNow() {
+		if(mRunning != null)
+			return;
+
+		sHandler.removeCallbacks(this);
+		// A manual retry starts over after the automatic attempts are used up.
+		if(mAttempt >= sMaxAttempts)
+			mAttempt = 0;
+		execute();
+	}
+
+	/**
+	 * @return whether the automatic attempts are used up and none is running.
+	 */
+	boolean isExhausted() {
+		return mAttempt >= sMaxAttempts && mRunning == null;
+	}
+
+	void cancel() {
+		mCanceled = true;
+		sHandler.removeCallbacks(this);
+		if(mRunning != null) {
+			mRunning.cancel(true);
+			mRunning = null;
+		}
+	}
+
+	/**
+	 * Countdown tick, once per second until the deadline.
+	 */
+	@Override
+	public void run() {
+		if(mCanceled)
+			return;
+
+		final long remaining = mDeadline - SystemClock.uptimeMillis();
+		if(remaining <= 0) {
+			execute();
+			return;
+		}
+
+		final int seconds = (int)((remaining + 999) / 1000);
+		mController.setStatusMessage(entry,
+				mController.getResources().getString(R.string.retry_countdown, mMessage, seconds));
+		sHandler.postAtTime(this, mDeadline - (seconds - 1) * 1000L);
+	}
+
+	private void execute() {
+		mController.setStatusMessage(entry, mController.getResources().getString(R.string.retrying, mMessage));
+
+		try {
+			mRunning = getExecutor().submit(new Runnable() {
+				@Override
+				public void run() {
+					Exception failure = null;
+					try {
+						mTask.run();
+					} catch (Exception e) {
+						failure = e;
+					}
+
+					final Exception result = failure;
+					sHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							onResult(result);
+						}
+					});
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Too many retries waiting already, back off as if it failed.
+			onResult(e);
+		}
+	}
+
+	private void onResult(final Exception failure) {
+		mRunning = null;
+		if(mCanceled)
+			return;
+
+		if(failure == null) {
+			mController.onRetrySucceeded(this);
+			return;
+		}
+
+		Log.w(TAG, "Retry attempt " + (mAttempt + 1) + " failed", failure);
+		if(++mAttempt < sMaxAttempts) {
+			schedule();
+		}
+		else {
+			// Out of attempts, leave it to the retry button.
+			mController.setStatusMessage(entry, mMessage);
+			mController.onRetryExhausted(this);
+		}
+	}
+
+	private static ThreadPoolExecutor getExecutor() {
+		if(sExecutor == null) {
+			sExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_RETRIES, MAX_CONCURRENT_RETRIES, 30, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(MAX_QUEUED_RETRIES), new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "UndoBar retry") {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							super.run();
+						}
+					};
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+				sExecutor.allowCoreThreadTimeOut(true);
+		}
+		return sExecutor;
+	}
+}
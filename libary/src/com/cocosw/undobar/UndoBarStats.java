@@ -0,0 +1,169 @@
+package com.cocosw.undobar;
+
+/**
+ * {@link UndoBarMetrics} keeping counters and histograms in preallocated arrays, read on demand.
+ * Recording never allocates; reading is safe from any thread.
+ */
+public final class UndoBarStats implements UndoBarMetrics {
+	private final Object mLock = new Object();
+	private final long[] mDismissCounts = new long[DISMISS_REASON_COUNT];
+
+	private final Histogram mInflate = new Histogram(mLock);
+	private final Histogram mApplyStyle = new Histogram(mLock);
+	private final Histogram mFirstFrame = new Histogram(mLock);
+	private final Histogram mVisible = new Histogram(mLock);
+
+	@Override
+	public void onInflate(final long nanos) {
+		mInflate.record(nanos);
+	}
+
+	@Override
+	public void onApplyStyle(final long nanos) {
+		mApplyStyle.record(nanos);
+	}
+
+	@Override
+	public void onFirstFrame(final long nanos) {
+		mFirstFrame.record(nanos);
+	}
+
+	@Override
+	public void onVisible(final long nanos) {
+		mVisible.record(nanos);
+	}
+
+	@Override
+	public void onDismiss(final int reason) {
+		synchronized(mLock) {
+			mDismissCounts[reason]++;
+		}
+	}
+
+	/**
+	 * @param reason One of the {@link UndoBarMetrics} DISMISS_* reasons.
+	 *
+	 * @return the number of bars that ended for this reason.
+	 */
+	public long getDismissCount(final int reason) {
+		synchronized(mLock) {
+			return mDismissCounts[reason];
+		}
+	}
+
+	public Histogram getInflateTimes() {
+		return mInflate;
+	}
+
+	public Histogram getApplyStyleTimes() {
+		return mApplyStyle;
+	}
+
+	public Histogram getFirstFrameTimes() {
+		return mFirstFrame;
+	}
+
+	public Histogram getVisibleTimes() {
+		return mVisible;
+	}
+
+	public void reset() {
+		synchronized(mLock) {
+			for(int i = 0; i < mDismissCounts.length; i++)
+				mDismissCounts[i] = 0;
+			mInflate.clear();
+			mApplyStyle.clear();
+			mFirstFrame.clear();
+			mVisible.clear();
+		}
+	}
+
+	/**
+	 * Durations bucketed by powers of two microseconds: bucket 0 holds durations under 1us,
+	 * bucket i durations from 2^(i-1) up to 2^i us, and the last bucket everything longer.
+	 */
+	public static final class Histogram {
+		public static final int BUCKET_COUNT = 26;
+
+		private final Object mLock;
+		private final long[] mBuckets = new long[BUCKET_COUNT];
+		private long mCount;
+		private long mSum;
+		private long mMax;
+
+		Histogram(final Object lock) {
+			mLock = lock;
+		}
+
+		void record(final long nanos) {
+			final long micros = nanos / 1000;
+			final int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+			synchronized(mLock) {
+				mBuckets[bucket]++;
+				mCount++;
+				mSum += nanos;
+				if(nanos > mMax)
+					mMax = nanos;
+			}
+		}
+
+		void clear() {
+			for(int i = 0; i < mBuckets.length; i++)
+				mBuckets[i] = 0;
+			mCount = 0;
+			mSum = 0;
+			mMax = 0;
+		}
+
+		public long getCount() {
+			synchronized(mLock) {
+				return mCount;
+			}
+		}
+
+		public long getBucketCount(final int bucket) {
+			synchronized(mLock) {
+				return mBuckets[bucket];
+			}
+		}
+
+		/**
+		 * @return the mean duration in nanoseconds, or 0 if nothing was recorded.
+		 */
+		public long getMean() {
+			synchronized(mLock) {
+				return mCount > 0 ? mSum / mCount : 0;
+			}
+		}
+
+		/**
+		 * @return the longest duration in nanoseconds.
+		 */
+		public long getMax() {
+			synchronized(mLock) {
+				return mMax;
+			}
+		}
+
+		/**
+		 * @param percentile Between 0 and 100.
+		 *
+		 * @return the upper bound of the bucket holding the percentile, in nanoseconds, or 0 if nothing was recorded.
+		 */
+		public long getPercentile(final double percentile) {
+			synchronized(mLock) {
+				if(mCount == 0)
+					return 0;
+
+				final long rank = (long)Math.ceil(mCount * percentile / 100);
+				long seen = 0;
+				for(int i = 0; i < BUCKET_COUNT - 1; i++) {
+					seen += mBuckets[i];
+					if(seen >= rank)
+						return Math.min((1L << i) * 1000, mMax);
+				}
+				return mMax;
+			}
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package com.cocosw.undobar;
 
+import android.content.Context;
 import android.os.Parcel;
 import android.os.Parcelable;
 
@@ -7,11 +8,24 @@ public class UndoBarStyle implements Parcelable {
 	public static final int IGNORE_RESOURCE = 0;
 	public static final int DEFAULT_DURATION = 5000;
 
+	/*
+	 * Priorities used to order pending undo bars. Higher priorities are shown first.
+	 */
+	public static final int PRIORITY_LOW = -1;
+	public static final int PRIORITY_NORMAL = 0;
+	public static final int PRIORITY_HIGH = 1;
+
 	int iconRes = 0;
 	int titleRes = 0;
 	int buttonBgRes = 0;
 	int bgRes = 0;
 	long duration = DEFAULT_DURATION;
+	int priority = PRIORITY_NORMAL;
+
+	// Set once the style can no longer change, see compile().
+	private boolean mCompiled = false;
+	// Cached hash code, 0 until computed.
+	private int mHash = 0;
 
 	public UndoBarStyle(final int icon, final int title) {
 		iconRes = icon;
@@ -33,6 +47,58 @@ public class UndoBarStyle implements Parcelable {
 		bgRes = bg;
 	}
 
+	/**
+	 * Read the style the context's theme points to with its undoBarStyle attribute, or the default undo style
+	 * if it has none. The style is read once per theme and cached, so calling this from every Activity is cheap.
+	 * Main thread only.
+	 *
+	 * @return the theme's style. It can't be changed.
+	 */
+	public static UndoBarStyle fromTheme(final Context context) {
+		return UndoBarThemeStyles.get(context, 0);
+	}
+
+	/**
+	 * Read a style declared in XML with the UndoBarStyle attributes, resolved against the context's theme.
+	 * The style is read once per theme and cached. Main thread only.
+	 *
+	 * @param styleRes The style resource.
+	 *
+	 * @return the style. It can't be changed.
+	 */
+	public static UndoBarStyle fromStyle(final Context context, final int styleRes) {
+		if(styleRes == 0)
+			throw new IllegalArgumentException("Style resource must not be 0.");
+		return UndoBarThemeStyles.get(context, styleRes);
+	}
+
+	/**
+	 * Set the priority of bars using this style. Pending bars with a higher priority
+	 * jump ahead of lower priority ones.
+	 *
+	 * @param priority One of {@link #PRIORITY_LOW}, {@link #PRIORITY_NORMAL} or {@link #PRIORITY_HIGH}.
+	 *
+	 * @return this style.
+	 */
+	public UndoBarStyle setPriority(final int priority) {
+		if(mCompiled)
+			throw new IllegalStateException("Styles read from a theme can't be changed.");
+		this.priority = priority;
+		mHash = 0;
+		return this;
+	}
+
+	/**
+	 * Freeze the style and compute its hash code up front, since it is shared through the theme cache.
+	 *
+	 * @return this style.
+	 */
+	UndoBarStyle compile() {
+		mCompiled = true;
+		mHash = computeHash();
+		return this;
+	}
+
     @Override
     public String toString() {
         return "UndoBarStyle{" +
@@ -41,6 +107,7 @@ public class UndoBarStyle implements Parcelable {
                 ", buttonBg=" + buttonBgRes +
                 ", bgRes=" + bgRes +
                 ", duration=" + duration +
+                ", priority=" + priority +
                 '}';
     }
 
@@ -55,8 +122,26 @@ public class UndoBarStyle implements Parcelable {
 				buttonBgRes == that.buttonBgRes &&
 				duration == that.duration &&
 				iconRes == that.iconRes &&
-				titleRes == that.titleRes;
+				titleRes == that.titleRes &&
+				priority == that.priority;
+
+	}
+
+	@Override
+	public int hashCode() {
+		if(mHash == 0)
+			mHash = computeHash();
+		return mHash;
+	}
 
+	private int computeHash() {
+		int result = iconRes;
+		result = 31 * result + titleRes;
+		result = 31 * result + buttonBgRes;
+		result = 31 * result + bgRes;
+		result = 31 * result + (int) (duration ^ (duration >>> 32));
+		result = 31 * result + priority;
+		return result;
 	}
 
 	/*
@@ -69,6 +154,7 @@ public class UndoBarStyle implements Parcelable {
 		buttonBgRes = source.readInt();
 		bgRes = source.readInt();
 		duration = source.readLong();
+		priority = source.readInt();
 	}
 
 	@Override
@@ -78,6 +164,7 @@ public class UndoBarStyle implements Parcelable {
 		dest.writeInt(buttonBgRes);
 		dest.writeInt(bgRes);
 		dest.writeLong(duration);
+		dest.writeInt(priority);
 	}
 
 	@Override
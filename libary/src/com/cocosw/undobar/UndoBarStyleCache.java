@@ -0,0 +1,144 @@
+package com.cocosw.undobar;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+
+import java.util.HashMap;
+
+/**
+ * Process-wide cache of the resources a {@link UndoBarStyle} resolves to,
+ * so switching styles does not look them up, decode or allocate them again.
+ *
+ * Entries are only valid for the configuration they were resolved in, and are dropped
+ * when it changes or the system asks to trim memory. Main thread only.
+ */
+final class UndoBarStyleCache {
+	static final class Resolved {
+		String title;
+		String upperCaseTitle;
+		Drawable.ConstantState icon;
+		Drawable.ConstantState buttonBackground;
+		Drawable.ConstantState background;
+	}
+
+	/**
+	 * Drawables created from a resolved style for the views of one controller. A drawable can only be shown by
+	 * one view at a time, so every controller keeps its own, and switching back to a style reuses them.
+	 */
+	static final class Drawables {
+		private final HashMap<UndoBarStyle, Drawables> mStyles;
+		// Resolved style the drawables were created from, they are created again once it is dropped.
+		private Resolved mResolved;
+		Drawable icon;
+		Drawable buttonBackground;
+		Drawable background;
+
+		Drawables() {
+			mStyles = new HashMap<UndoBarStyle, Drawables>();
+		}
+
+		private Drawables(final Resolved resolved, final Resources res) {
+			mStyles = null;
+			mResolved = resolved;
+			if(resolved.icon != null)
+				icon = resolved.icon.newDrawable(res);
+			if(resolved.buttonBackground != null)
+				buttonBackground = resolved.buttonBackground.newDrawable(res);
+			if(resolved.background != null)
+				background = resolved.background.newDrawable(res);
+		}
+
+		/**
+		 * @return the drawables of a style, created only the first time the controller shows it.
+		 */
+		Drawables get(final Resources res, final UndoBarStyle style, final Resolved resolved) {
+			Drawables drawables = mStyles.get(style);
+			if(drawables == null || drawables.mResolved != resolved) {
+				drawables = new Drawables(resolved, res);
+				mStyles.put(style, drawables);
+			}
+			return drawables;
+		}
+	}
+
+	private static final HashMap<UndoBarStyle, Resolved> sCache = new HashMap<UndoBarStyle, Resolved>();
+	private static Configuration sConfiguration;
+	private static boolean sRegistered = false;
+
+	private UndoBarStyleCache() {
+	}
+
+	static Resolved get(final Context context, final UndoBarStyle style) {
+		final Resources res = context.getResources();
+		final Configuration configuration = res.getConfiguration();
+		if(sConfiguration == null || sConfiguration.diff(configuration) != 0) {
+			sCache.clear();
+			sConfiguration = new Configuration(configuration);
+			register(context);
+		}
+
+		Resolved resolved = sCache.get(style);
+		if(resolved == null) {
+			resolved = resolve(res, style);
+			sCache.put(style, resolved);
+		}
+		return resolved;
+	}
+
+	/**
+	 * Resolve only what setting the style needs, so it fails the same way it would without the cache.
+	 */
+	private static Resolved resolve(final Resources res, final UndoBarStyle style) {
+		final Resolved resolved = new Resolved();
+		if(style.titleRes != UndoBarStyle.IGNORE_RESOURCE) {
+			resolved.title = res.getString(style.titleRes);
+			resolved.upperCaseTitle = resolved.title.toUpperCase();
+
+			if(style.iconRes != UndoBarStyle.IGNORE_RESOURCE)
+				resolved.icon = res.getDrawable(style.iconRes).getConstantState();
+			if(style.buttonBgRes != UndoBarStyle.IGNORE_RESOURCE)
+				resolved.buttonBackground = res.getDrawable(style.buttonBgRes).getConstantState();
+		}
+		if(style.bgRes != UndoBarStyle.IGNORE_RESOURCE)
+			resolved.background = res.getDrawable(style.bgRes).getConstantState();
+		return resolved;
+	}
+
+	static void clear() {
+		sCache.clear();
+	}
+
+	private static void register(final Context context) {
+		if(!sRegistered && Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+			TrimCallbacks.register(context);
+			sRegistered = true;
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+	private static final class TrimCallbacks implements ComponentCallbacks2 {
+		static void register(final Context context) {
+			context.getApplicationContext().registerComponentCallbacks(new TrimCallbacks());
+		}
+
+		@Override
+		public void onTrimMemory(final int level) {
+			clear();
+		}
+
+		@Override
+		public void onConfigurationChanged(final Configuration newConfig) {
+			clear();
+		}
+
+		@Override
+		public void onLowMemory() {
+			clear();
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package com.cocosw.undobar;
+
+import android.animation.Animator;
+import android.animation.ValueAnimator;
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.ViewParent;
+
+/**
+ * Horizontal swipe-to-dismiss gesture of the undo bar.
+ *
+ * The bar follows the finger through its translation only, so a swipe never lays it out again. Released past half
+ * its width, or flung, it slides out and is dismissed; otherwise it slides back. State and the velocity tracker are
+ * reused across gestures, so handling an event does not allocate.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+final class UndoBarSwipe implements ValueAnimator.AnimatorUpdateListener, Animator.AnimatorListener {
+	private static final long SETTLE_DURATION = 200;
+	// Fraction of the bar's width past which a released swipe dismisses it.
+	private static final float DISMISS_FRACTION = 0.5f;
+
+	private final UndoBarController mController;
+	private final int mTouchSlop;
+	private final int mMinFlingVelocity;
+	private final int mMaxFlingVelocity;
+	private final ValueAnimator mSettleAnimator = ValueAnimator.ofFloat(0f, 1f);
+
+	private VelocityTracker mVelocityTracker;
+	private View mBar;
+	// Whether the current gesture started on the bar, and whether it turned into a swipe.
+	private boolean mTracking = false;
+	private boolean mSwiping = false;
+	private int mPointerId;
+	private float mDownX;
+	private float mDownY;
+	private boolean mDismissing = false;
+	private boolean mCanceled = false;
+
+	UndoBarSwipe(final UndoBarController controller) {
+		mController = controller;
+		final ViewConfiguration configuration = ViewConfiguration.get(controller.getContext());
+		mTouchSlop = configuration.getScaledTouchSlop();
+		mMinFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+		mMaxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+		mSettleAnimator.setDuration(SETTLE_DURATION);
+		mSettleAnimator.addUpdateListener(this);
+		mSettleAnimator.addListener(this);
+	}
+
+	/**
+	 * @return whether the controller should take over the gesture from the bar's views.
+	 */
+	boolean onInterceptTouchEvent(final MotionEvent ev) {
+		return handle(ev);
+	}
+
+	/**
+	 * @return whether the event was part of a gesture on the bar.
+	 */
+	boolean onTouchEvent(final MotionEvent ev) {
+		return handle(ev) || mTracking;
+	}
+
+	private boolean handle(final MotionEvent ev) {
+		switch(ev.getActionMasked()) {
+			case MotionEvent.ACTION_DOWN:
+				mTracking = false;
+				mSwiping = false;
+				// Can't catch the bar while it slides, nor swipe one that is not there.
+				if(mSettleAnimator.isRunning() || !mController.isShowing())
+					return false;
+				mBar = mController.getChildCount() > 0 ? mController.getChildAt(0) : null;
+				if(mBar == null || !isInsideBar(ev.getX(), ev.getY()))
+					return false;
+
+				mTracking = true;
+				mPointerId = ev.getPointerId(0);
+				mDownX = ev.getX();
+				mDownY = ev.getY();
+				if(mVelocityTracker == null)
+					mVelocityTracker = VelocityTracker.obtain();
+				else
+					mVelocityTracker.clear();
+				mVelocityTracker.addMovement(ev);
+				return false;
+
+			case MotionEvent.ACTION_MOVE: {
+				if(!mTracking)
+					return false;
+				final int index = ev.findPointerIndex(mPointerId);
+				if(index < 0)
+					return mSwiping;
+				mVelocityTracker.addMovement(ev);
+				final float dx = ev.getX(index) - mDownX;
+				if(!mSwiping) {
+					final float dy = ev.getY(index) - mDownY;
+					if(Math.abs(dx) <= mTouchSlop || Math.abs(dx) <= Math.abs(dy))
+						return false;
+					mSwiping = true;
+					// The bar stays while it is held.
+					mController.onSwipeStart();
+					final ViewParent parent = mController.getParent();
+					if(parent != null)
+						parent.requestDisallowInterceptTouchEvent(true);
+				}
+				mBar.setTranslationX(dx);
+				return true;
+			}
+
+			case MotionEvent.ACTION_UP:
+				if(mSwiping) {
+					mVelocityTracker.addMovement(ev);
+					mVelocityTracker.computeCurrentVelocity(1000, mMaxFlingVelocity);
+					release(mVelocityTracker.getXVelocity(mPointerId));
+					return true;
+				}
+				mTracking = false;
+				return false;
+
+			case MotionEvent.ACTION_CANCEL:
+				if(mSwiping) {
+					release(0f);
+					return true;
+				}
+				mTracking = false;
+				return false;
+		}
+		return mSwiping;
+	}
+
+	private boolean isInsideBar(final float x, final float y) {
+		final float left = mBar.getLeft() + mBar.getTranslationX();
+		final float top = mBar.getTop() + mBar.getTranslationY();
+		return x >= left && x < left + mBar.getWidth() && y >= top && y < top + mBar.getHeight();
+	}
+
+	/**
+	 * Slide the released bar out or back, depending on how far and how fast it was swiped.
+	 */
+	private void release(final float velocity) {
+		mTracking = false;
+		mSwiping = false;
+
+		final float translation = mBar.getTranslationX();
+		final int width = mBar.getWidth();
+		final boolean flung = Math.abs(velocity) >= mMinFlingVelocity && velocity * translation > 0;
+		mDismissing = flung || Math.abs(translation) > width * DISMISS_FRACTION;
+
+		final float target = mDismissing ? Math.signum(translation) * width : 0f;
+		if(translation == target) {
+			onSettled();
+			return;
+		}
+		mSettleAnimator.setFloatValues(translation, target);
+		mSettleAnimator.start();
+	}
+
+	private void onSettled() {
+		if(mDismissing) {
+			mDismissing = false;
+			// Back in place, for the next bar shown in it.
+			mBar.setTranslationX(0f);
+			mController.onSwipeDismiss();
+		}
+		else {
+			mController.onSwipeCancel();
+		}
+	}
+
+	/**
+	 * Stop any gesture and put the bar back in place, without dismissing it.
+	 */
+	void reset() {
+		mTracking = false;
+		mSwiping = false;
+		mDismissing = false;
+		mSettleAnimator.cancel();
+		if(mBar != null)
+			mBar.setTranslationX(0f);
+	}
+
+	/**
+	 * Give back the velocity tracker, when the controller leaves the window.
+	 */
+	void recycle() {
+		reset();
+		if(mVelocityTracker != null) {
+			mVelocityTracker.recycle();
+			mVelocityTracker = null;
+		}
+	}
+
+	@Override
+	public void onAnimationUpdate(final ValueAnimator animation) {
+		mBar.setTranslationX((Float)animation.getAnimatedValue());
+	}
+
+	@Override
+	public void onAnimationStart(final Animator animation) {
+		mCanceled = false;
+	}
+
+	@Override
+	public void onAnimationCancel(final Animator animation) {
+		mCanceled = true;
+	}
+
+	@Override
+	public void onAnimationEnd(final Animator animation) {
+		// Reset while sliding.
+		if(mCanceled) {
+			mCanceled = false;
+			return;
+		}
+		onSettled();
+	}
+
+	@Override
+	public void onAnimationRepeat(final Animator animation) {
+	}
+}
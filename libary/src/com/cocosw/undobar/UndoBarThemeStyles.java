@@ -0,0 +1,64 @@
+package com.cocosw.undobar;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.util.SparseArray;
+
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide cache of the {@link UndoBarStyle}s declared in themes and XML styles,
+ * so each one is read through a TypedArray only once per theme.
+ *
+ * Themes are weakly referenced and go away with their Activity. Main thread only.
+ */
+final class UndoBarThemeStyles {
+	// Key of the style the theme's undoBarStyle attribute points to.
+	private static final int THEME_STYLE = 0;
+
+	private static final WeakHashMap<Resources.Theme, SparseArray<UndoBarStyle>> sCache =
+			new WeakHashMap<Resources.Theme, SparseArray<UndoBarStyle>>();
+
+	private UndoBarThemeStyles() {
+	}
+
+	/**
+	 * @param styleRes The style to read, or 0 for the one the theme's undoBarStyle attribute points to.
+	 */
+	static UndoBarStyle get(final Context context, final int styleRes) {
+		final Resources.Theme theme = context.getTheme();
+		SparseArray<UndoBarStyle> styles = sCache.get(theme);
+		if(styles == null) {
+			styles = new SparseArray<UndoBarStyle>(2);
+			sCache.put(theme, styles);
+		}
+
+		final int key = styleRes != 0 ? styleRes : THEME_STYLE;
+		UndoBarStyle style = styles.get(key);
+		if(style == null) {
+			style = read(theme, styleRes);
+			styles.put(key, style);
+		}
+		return style;
+	}
+
+	private static UndoBarStyle read(final Resources.Theme theme, final int styleRes) {
+		final TypedArray a = styleRes != 0
+				? theme.obtainStyledAttributes(styleRes, R.styleable.UndoBarStyle)
+				: theme.obtainStyledAttributes(null, R.styleable.UndoBarStyle, R.attr.undoBarStyle,
+				                               R.style.UndoBarUndoStyle);
+		try {
+			final UndoBarStyle style = new UndoBarStyle(
+					a.getResourceId(R.styleable.UndoBarStyle_undoBarIcon, UndoBarStyle.IGNORE_RESOURCE),
+					a.getResourceId(R.styleable.UndoBarStyle_undoBarTitle, UndoBarStyle.IGNORE_RESOURCE),
+					a.getResourceId(R.styleable.UndoBarStyle_undoBarButtonBackground, UndoBarStyle.IGNORE_RESOURCE),
+					a.getResourceId(R.styleable.UndoBarStyle_undoBarBackground, UndoBarStyle.IGNORE_RESOURCE),
+					a.getInt(R.styleable.UndoBarStyle_undoBarDuration, UndoBarStyle.DEFAULT_DURATION));
+			style.setPriority(a.getInt(R.styleable.UndoBarStyle_undoBarPriority, UndoBarStyle.PRIORITY_NORMAL));
+			return style.compile();
+		} finally {
+			a.recycle();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package com.cocosw.undobar;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Auto-hide timer shared by all controllers.
+ *
+ * Controllers keep an absolute hide deadline ({@link SystemClock#uptimeMillis()} based) in a table, and a single
+ * message on the main looper wakes up for the earliest one. Moving a deadline is a field update: the message is
+ * only re-posted when the earliest deadline gets earlier. Main thread only.
+ */
+final class UndoBarTimer implements Runnable {
+	private static final long NONE = Long.MAX_VALUE;
+
+	private static UndoBarTimer sInstance;
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	private UndoBarController[] mControllers = new UndoBarController[4];
+	private long[] mDeadlines = new long[4];
+	private int mSize = 0;
+	private UndoBarController[] mExpired = new UndoBarController[4];
+
+	// Uptime the wake-up message is posted for.
+	private long mWakeUpAt = NONE;
+
+	private boolean mPaused = false;
+	private long mPausedAt;
+
+	static UndoBarTimer get() {
+		if(sInstance == null)
+			sInstance = new UndoBarTimer();
+		return sInstance;
+	}
+
+	private UndoBarTimer() {
+	}
+
+	/**
+	 * Set, or move, the hide deadline of a controller.
+	 */
+	void schedule(final UndoBarController controller, final long deadline) {
+		int index = controller.mTimerIndex;
+		if(index < 0) {
+			if(mSize == mControllers.length)
+				grow();
+			index = mSize++;
+			mControllers[index] = controller;
+			controller.mTimerIndex = index;
+		}
+		mDeadlines[index] = deadline;
+
+		if(deadline < mWakeUpAt)
+			wakeUpAt(deadline);
+	}
+
+	void cancel(final UndoBarController controller) {
+		final int index = controller.mTimerIndex;
+		if(index < 0)
+			return;
+
+		// Move the last entry into the freed slot. A wake-up posted for it is simply ignored.
+		final int last = --mSize;
+		mControllers[index] = mControllers[last];
+		mDeadlines[index] = mDeadlines[last];
+		mControllers[index].mTimerIndex = index;
+		mControllers[last] = null;
+		controller.mTimerIndex = -1;
+	}
+
+	/**
+	 * Stop all timers, e.g. while the app is in the background.
+	 */
+	void pause() {
+		if(mPaused)
+			return;
+
+		mPaused = true;
+		mPausedAt = SystemClock.uptimeMillis();
+		mHandler.removeCallbacks(this);
+		mWakeUpAt = NONE;
+	}
+
+	/**
+	 * Restart all timers, pushing every deadline back by the time spent paused.
+	 */
+	void resume() {
+		if(!mPaused)
+			return;
+
+		mPaused = false;
+		final long pausedFor = SystemClock.uptimeMillis() - mPausedAt;
+		long earliest = NONE;
+		for(int i = 0; i < mSize; i++) {
+			mDeadlines[i] += pausedFor;
+			earliest = Math.min(earliest, mDeadlines[i]);
+		}
+		if(earliest != NONE)
+			wakeUpAt(earliest);
+	}
+
+	private void wakeUpAt(final long uptime) {
+		if(mPaused)
+			return;
+
+		mHandler.removeCallbacks(this);
+		mHandler.postAtTime(this, uptime);
+		mWakeUpAt = uptime;
+	}
+
+	@Override
+	public void run() {
+		mWakeUpAt = NONE;
+		final long now = SystemClock.uptimeMillis();
+
+		// Collect the expired controllers first, as hiding may schedule or cancel timers.
+		int expired = 0;
+		long earliest = NONE;
+		for(int i = mSize - 1; i >= 0; i--) {
+			if(mDeadlines[i] <= now) {
+				if(expired == mExpired.length) {
+					final UndoBarController[] grown = new UndoBarController[expired * 2];
+					System.arraycopy(mExpired, 0, grown, 0, expired);
+					mExpired = grown;
+				}
+				mExpired[expired++] = mControllers[i];
+				cancel(mControllers[i]);
+			}
+			else {
+				earliest = Math.min(earliest, mDeadlines[i]);
+			}
+		}
+
+		if(earliest != NONE && earliest < mWakeUpAt)
+			wakeUpAt(earliest);
+
+		for(int i = 0; i < expired; i++) {
+			final UndoBarController controller = mExpired[i];
+			mExpired[i] = null;
+			controller.onHideTimeout();
+		}
+	}
+
+	private void grow() {
+		final UndoBarController[] controllers = new UndoBarController[mSize * 2];
+		System.arraycopy(mControllers, 0, controllers, 0, mSize);
+		mControllers = controllers;
+
+		final long[] deadlines = new long[mSize * 2];
+		System.arraycopy(mDeadlines, 0, deadlines, 0, mSize);
+		mDeadlines = deadlines;
+	}
+}
@@ -0,0 +1,52 @@
+package com.cocosw.undobar;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.os.Process;
+
+import java.util.HashMap;
+
+/**
+ * Process-wide cache of typefaces loaded from assets, so each font file is read and parsed once.
+ */
+final class UndoBarTypefaces {
+	static final String ROBOTO_CONDENSED = "fonts/RobotoCondensed-Regular.ttf";
+
+	private static final HashMap<String, Typeface> sCache = new HashMap<String, Typeface>();
+
+	private UndoBarTypefaces() {
+	}
+
+	/**
+	 * Get a typeface, loading it if needed. Blocks while another thread is loading fonts.
+	 */
+	static Typeface get(final Context context, final String asset) {
+		synchronized(sCache) {
+			Typeface typeface = sCache.get(asset);
+			if(typeface == null) {
+				typeface = Typeface.createFromAsset(context.getApplicationContext().getAssets(), asset);
+				sCache.put(asset, typeface);
+			}
+			return typeface;
+		}
+	}
+
+	/**
+	 * Load a typeface on a background thread, unless it is already loaded.
+	 */
+	static void preload(final Context context, final String asset) {
+		synchronized(sCache) {
+			if(sCache.containsKey(asset))
+				return;
+		}
+
+		final Context appContext = context.getApplicationContext();
+		new Thread("UndoBar typeface preload") {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				get(appContext, asset);
+			}
+		}.start();
+	}
+}
@@ -0,0 +1,453 @@
+package com.cocosw.undobar;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.GetChars;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.TypedValue;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+/**
+ * Undo bar drawn by a single view, in place of the undobar layout: the message, divider, button icon and
+ * title are drawn from cached text layouts and drawables, and touches are hit-tested against the button area.
+ * One view means one measure and layout pass per show, and a single background drawn.
+ *
+ * It draws either the undobar layout or, for {@link UndoBarKitKatController}, the undobar_kitkat one. The button
+ * can be focused and pressed with the keyboard, and accessibility services see the bar as a single clickable node
+ * reading the message and the button title.
+ */
+final class UndoBarView extends View {
+	private static final int[] PRESSED_STATE = {android.R.attr.state_pressed};
+	private static final int[] FOCUSED_STATE = {android.R.attr.state_focused};
+	private static final int[] EMPTY_STATE = {};
+
+	private final UndoBarController mController;
+	private final boolean mKitKat;
+
+	private final TextPaint mMessagePaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+	private final TextPaint mButtonPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint mProgressPaint = new Paint();
+	private final Drawable mDivider;
+	private Drawable mIcon;
+	private Drawable mButtonBackground;
+
+	private CharSequence mMessage = "";
+	// Reused for messages formatted into a char buffer.
+	private final MessageChars mMessageChars = new MessageChars();
+	private StaticLayout mMessageLayout;
+	private String mTitle;
+	private float mTitleWidth;
+	private int mProgress = UndoBarController.NO_PROGRESS;
+
+	// Dimensions of the undobar or undobar_kitkat layout, in pixels.
+	private final int mMinHeight;
+	private final int mMessageLeft;
+	private final int mMessageRight;
+	private final int mVerticalPadding;
+	private final int mDividerWidth;
+	private final int mDividerMargin;
+	private final int mButtonPaddingLeft;
+	private final int mButtonPaddingRight;
+	private final int mIconPadding;
+	private final int mProgressHeight;
+
+	private final Rect mButtonBounds = new Rect();
+	private boolean mButtonPressed = false;
+
+	/**
+	 * @param kitKat Whether to draw the undobar_kitkat layout rather than the undobar one.
+	 */
+	@SuppressWarnings("deprecation")
+	UndoBarView(final Context context, final UndoBarController controller, final boolean kitKat) {
+		super(context);
+		mController = controller;
+		mKitKat = kitKat;
+		setId(R.id.undobar);
+
+		final Resources res = getResources();
+		mProgressHeight = dip(res, 2);
+		mMessagePaint.setColor(Color.WHITE);
+		mMessagePaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 16, res.getDisplayMetrics()));
+		mButtonPaint.setColor(Color.WHITE);
+		mProgressPaint.setColor(Color.WHITE);
+
+		if(kitKat) {
+			mMinHeight = 0;
+			mMessageLeft = dip(res, 25);
+			mMessageRight = dip(res, 16);
+			mVerticalPadding = dip(res, 11);
+			// The divider is part of the button, full height.
+			mDividerWidth = dip(res, 1);
+			mDividerMargin = 0;
+			mButtonPaddingLeft = mDividerWidth + dip(res, 16);
+			mButtonPaddingRight = dip(res, 16);
+			mIconPadding = dip(res, 12);
+
+			final Typeface typeface = UndoBarTypefaces.get(context, UndoBarTypefaces.ROBOTO_CONDENSED);
+			mMessagePaint.setTypeface(typeface);
+			mMessagePaint.setShadowLayer(2.75f, 0f, 0f, 0xbb000000);
+			mButtonPaint.setTypeface(typeface);
+			mButtonPaint.setTextSize(mMessagePaint.getTextSize());
+			mButtonPaint.setShadowLayer(2.75f, 0f, 0f, 0xbb000000);
+
+			// Same defaults as the undobar_kitkat layout.
+			setBackgroundDrawable(res.getDrawable(R.drawable.toast_frame_holo));
+			mDivider = new ColorDrawable(0x7fffffff);
+			setIcon(res.getDrawable(R.drawable.ic_undobar_undo_kitkat));
+			mButtonBackground = res.getDrawable(R.drawable.toast_frame_holo_button);
+		}
+		else {
+			mMinHeight = dip(res, 48);
+			mMessageLeft = dip(res, 16);
+			mMessageRight = dip(res, 16);
+			mVerticalPadding = dip(res, 8);
+			mDividerWidth = dip(res, 1);
+			mDividerMargin = dip(res, 8);
+			mButtonPaddingLeft = dip(res, 16);
+			mButtonPaddingRight = dip(res, 16);
+			mIconPadding = dip(res, 12);
+
+			mButtonPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 12, res.getDisplayMetrics()));
+			mButtonPaint.setTypeface(Typeface.DEFAULT_BOLD);
+
+			// Same defaults as the undobar layout.
+			setBackgroundDrawable(res.getDrawable(R.drawable.undobar_background));
+			mDivider = res.getDrawable(R.drawable.undobar_divider);
+			setIcon(res.getDrawable(R.drawable.ic_undobar_undo));
+			mButtonBackground = res.getDrawable(R.drawable.undobar_button);
+		}
+
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+			setAccessibilityDelegate(new Accessibility());
+	}
+
+	private static int dip(final Resources res, final int dip) {
+		return (int)(dip * res.getDisplayMetrics().density + 0.5f);
+	}
+
+	private void setIcon(final Drawable icon) {
+		mIcon = icon;
+		mIcon.setBounds(0, 0, icon.getIntrinsicWidth(), icon.getIntrinsicHeight());
+	}
+
+	/**
+	 * @return the distance from the button's left edge to the divider's: the undobar layout draws it left of the
+	 * button, the undobar_kitkat one inside it.
+	 */
+	private int getDividerOffset() {
+		return mKitKat ? 0 : -mDividerWidth;
+	}
+
+	/**
+	 * Apply a resolved style, keeping the current icon and backgrounds where it has none, like the layout does.
+	 */
+	@SuppressWarnings("deprecation")
+	void setStyle(final UndoBarStyleCache.Resolved resolved, final UndoBarStyleCache.Drawables drawables) {
+		// Like the layouts, only the undobar one shows the title in upper case.
+		mTitle = mKitKat ? resolved.title : resolved.upperCaseTitle;
+		mTitleWidth = mTitle != null ? mButtonPaint.measureText(mTitle) : 0;
+		if(mTitle != null) {
+			if(drawables.icon != null)
+				setIcon(drawables.icon);
+			if(drawables.buttonBackground != null)
+				mButtonBackground = drawables.buttonBackground;
+		}
+		if(drawables.background != null)
+			setBackgroundDrawable(drawables.background);
+		// Only the button takes focus.
+		setFocusable(mTitle != null);
+
+		mMessageLayout = null;
+		requestLayout();
+		invalidate();
+	}
+
+	void setMessage(final CharSequence message) {
+		if(TextUtils.equals(message, mMessage))
+			return;
+
+		mMessage = message != null ? message : "";
+		onMessageChanged();
+	}
+
+	/**
+	 * Show a message formatted into a char buffer. The chars are copied, so the buffer can be reused right away.
+	 */
+	void setMessage(final char[] chars, final int length) {
+		if(mMessage == mMessageChars && mMessageChars.equals(chars, length))
+			return;
+
+		mMessageChars.set(chars, length);
+		mMessage = mMessageChars;
+		onMessageChanged();
+	}
+
+	private void onMessageChanged() {
+		// Later versions read it through the accessibility delegate.
+		if(Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+			setContentDescription(mMessage);
+		final int height = mMessageLayout != null ? mMessageLayout.getHeight() : -1;
+		mMessageLayout = null;
+		if(getWidth() > 0) {
+			buildMessageLayout(getWidth());
+			// Same height, so the same layout: only redraw.
+			if(mMessageLayout.getHeight() == height) {
+				invalidate();
+				return;
+			}
+		}
+		requestLayout();
+		invalidate();
+	}
+
+	void setProgress(final int progress) {
+		if(progress != mProgress) {
+			mProgress = progress;
+			invalidate();
+		}
+	}
+
+	private int getButtonWidth() {
+		if(mTitle == null)
+			return 0;
+		return mButtonPaddingLeft + mIcon.getBounds().width() + mIconPadding + (int)Math.ceil(mTitleWidth) +
+				mButtonPaddingRight;
+	}
+
+	private void buildMessageLayout(final int width) {
+		final int buttonWidth = getButtonWidth();
+		final int messageWidth = Math.max(0, width - getPaddingLeft() - getPaddingRight() - mMessageLeft -
+				mMessageRight - (buttonWidth > 0 ? buttonWidth - getDividerOffset() : 0));
+		if(mMessageLayout == null || mMessageLayout.getWidth() != messageWidth) {
+			mMessageLayout = new StaticLayout(mMessage, mMessagePaint, messageWidth, Layout.Alignment.ALIGN_NORMAL,
+					1f, 0f, false);
+		}
+	}
+
+	@Override
+	protected void onMeasure(final int widthMeasureSpec, final int heightMeasureSpec) {
+		final int width = MeasureSpec.getSize(widthMeasureSpec);
+		buildMessageLayout(width);
+		final int height = Math.max(mMinHeight,
+				getPaddingTop() + getPaddingBottom() + mMessageLayout.getHeight() + 2 * mVerticalPadding);
+		setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+	}
+
+	@Override
+	protected void onLayout(final boolean changed, final int left, final int top, final int right, final int bottom) {
+		super.onLayout(changed, left, top, right, bottom);
+		final int buttonRight = getWidth() - getPaddingRight();
+		mButtonBounds.set(buttonRight - getButtonWidth(), getPaddingTop(), buttonRight,
+				getHeight() - getPaddingBottom());
+	}
+
+	@Override
+	protected void onDraw(final Canvas canvas) {
+		final int height = getHeight();
+
+		// Message, centered vertically.
+		canvas.save();
+		canvas.translate(getPaddingLeft() + mMessageLeft, (height - mMessageLayout.getHeight()) / 2);
+		mMessageLayout.draw(canvas);
+		canvas.restore();
+
+		if(mTitle != null) {
+			final Rect button = mButtonBounds;
+			mButtonBackground.setState(mButtonPressed ? PRESSED_STATE : isFocused() ? FOCUSED_STATE : EMPTY_STATE);
+			mButtonBackground.setBounds(button);
+			mButtonBackground.draw(canvas);
+
+			final int dividerLeft = button.left + getDividerOffset();
+			mDivider.setBounds(dividerLeft, button.top + mDividerMargin, dividerLeft + mDividerWidth,
+					button.bottom - mDividerMargin);
+			mDivider.draw(canvas);
+
+			final int iconLeft = button.left + mButtonPaddingLeft;
+			canvas.save();
+			canvas.translate(iconLeft, button.centerY() - mIcon.getBounds().height() / 2);
+			mIcon.draw(canvas);
+			canvas.restore();
+
+			final float baseline = button.centerY() - (mButtonPaint.ascent() + mButtonPaint.descent()) / 2;
+			canvas.drawText(mTitle, iconLeft + mIcon.getBounds().width() + mIconPadding, baseline, mButtonPaint);
+		}
+
+		if(mProgress != UndoBarController.NO_PROGRESS) {
+			final int left = getPaddingLeft();
+			final int bottom = height - getPaddingBottom();
+			final int width = getWidth() - left - getPaddingRight();
+			canvas.drawRect(left, bottom - mProgressHeight, left + width * Math.min(mProgress, 100) / 100, bottom,
+					mProgressPaint);
+		}
+	}
+
+	@Override
+	public boolean onTouchEvent(final MotionEvent event) {
+		final boolean inButton = mTitle != null && mButtonBounds.contains((int)event.getX(), (int)event.getY());
+		switch(event.getAction()) {
+			case MotionEvent.ACTION_DOWN:
+				setButtonPressed(inButton);
+				break;
+			case MotionEvent.ACTION_MOVE:
+				if(mButtonPressed && !inButton)
+					setButtonPressed(false);
+				break;
+			case MotionEvent.ACTION_UP:
+				if(mButtonPressed) {
+					setButtonPressed(false);
+					playSoundEffect(SoundEffectConstants.CLICK);
+					mController.performUndo();
+				}
+				break;
+			case MotionEvent.ACTION_CANCEL:
+				setButtonPressed(false);
+				break;
+		}
+		// Like the clickable layout, the bar consumes every touch.
+		return true;
+	}
+
+	private static boolean isConfirmKey(final int keyCode) {
+		return keyCode == KeyEvent.KEYCODE_DPAD_CENTER || keyCode == KeyEvent.KEYCODE_ENTER;
+	}
+
+	@Override
+	public boolean onKeyDown(final int keyCode, final KeyEvent event) {
+		if(mTitle != null && isConfirmKey(keyCode)) {
+			if(event.getRepeatCount() == 0)
+				setButtonPressed(true);
+			return true;
+		}
+		return super.onKeyDown(keyCode, event);
+	}
+
+	@Override
+	public boolean onKeyUp(final int keyCode, final KeyEvent event) {
+		if(mTitle != null && isConfirmKey(keyCode)) {
+			if(mButtonPressed) {
+				setButtonPressed(false);
+				playSoundEffect(SoundEffectConstants.CLICK);
+				mController.performUndo();
+			}
+			return true;
+		}
+		return super.onKeyUp(keyCode, event);
+	}
+
+	@Override
+	protected void onFocusChanged(final boolean gainFocus, final int direction, final Rect previouslyFocusedRect) {
+		super.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+		if(!gainFocus)
+			setButtonPressed(false);
+		invalidate(mButtonBounds);
+	}
+
+	private void setButtonPressed(final boolean pressed) {
+		if(pressed != mButtonPressed) {
+			mButtonPressed = pressed;
+			invalidate(mButtonBounds);
+		}
+	}
+
+	/**
+	 * Reads the message and the button title, and lets accessibility services press the drawn button.
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private final class Accessibility extends AccessibilityDelegate {
+		@Override
+		public void onPopulateAccessibilityEvent(final View host, final AccessibilityEvent event) {
+			super.onPopulateAccessibilityEvent(host, event);
+			event.getText().add(mMessage);
+			if(mTitle != null)
+				event.getText().add(mTitle);
+		}
+
+		@Override
+		public void onInitializeAccessibilityNodeInfo(final View host, final AccessibilityNodeInfo info) {
+			super.onInitializeAccessibilityNodeInfo(host, info);
+			info.setClassName(UndoBarView.class.getName());
+			info.setText(mTitle != null ? TextUtils.concat(mMessage, ", ", mTitle) : mMessage);
+			if(mTitle != null) {
+				info.setClickable(true);
+				info.addAction(AccessibilityNodeInfo.ACTION_CLICK);
+			}
+		}
+
+		@Override
+		public boolean performAccessibilityAction(final View host, final int action, final Bundle args) {
+			if(action == AccessibilityNodeInfo.ACTION_CLICK && mTitle != null) {
+				mController.performUndo();
+				return true;
+			}
+			return super.performAccessibilityAction(host, action, args);
+		}
+	}
+
+	/**
+	 * A message formatted into a char buffer, kept without creating a String for it.
+	 */
+	private static final class MessageChars implements CharSequence, GetChars {
+		private char[] mChars = new char[64];
+		private int mLength;
+
+		void set(final char[] chars, final int length) {
+			if(length > mChars.length)
+				mChars = new char[Math.max(length, mChars.length * 2)];
+			System.arraycopy(chars, 0, mChars, 0, length);
+			mLength = length;
+		}
+
+		boolean equals(final char[] chars, final int length) {
+			if(length != mLength)
+				return false;
+			for(int i = 0; i < length; i++) {
+				if(chars[i] != mChars[i])
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int length() {
+			return mLength;
+		}
+
+		@Override
+		public char charAt(final int index) {
+			return mChars[index];
+		}
+
+		@Override
+		public CharSequence subSequence(final int start, final int end) {
+			return new String(mChars, start, end - start);
+		}
+
+		@Override
+		public void getChars(final int start, final int end, final char[] dest, final int destOffset) {
+			System.arraycopy(mChars, start, dest, destOffset, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return new String(mChars, 0, mLength);
+		}
+	}
+}
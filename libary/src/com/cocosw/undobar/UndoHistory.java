@@ -0,0 +1,129 @@
+package com.cocosw.undobar;
+
+import android.os.Parcelable;
+
+/**
+ * Fixed-capacity history of undo tokens, for undoing the last N actions.
+ *
+ * Tokens are kept in a ring buffer: pushing and popping never allocate, and once full a push overwrites the oldest
+ * token. Attach it with {@link UndoBarController#setUndoHistory(UndoHistory, boolean)} so every token shown is
+ * pushed and the bar's button pops the most recent one.
+ */
+public final class UndoHistory {
+	private final Parcelable[] mTokens;
+	// Index the next token is pushed at.
+	private int mHead = 0;
+	private int mSize = 0;
+
+	public UndoHistory(final int capacity) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive.");
+		mTokens = new Parcelable[capacity];
+	}
+
+	public int capacity() {
+		return mTokens.length;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	/**
+	 * Push a token as the most recent one.
+	 *
+	 * @return the oldest token, dropped because the history was full, or null.
+	 */
+	public Parcelable push(final Parcelable token) {
+		final Parcelable dropped = mTokens[mHead];
+		mTokens[mHead] = token;
+		mHead = (mHead + 1) % mTokens.length;
+		if(mSize < mTokens.length) {
+			mSize++;
+			return null;
+		}
+		return dropped;
+	}
+
+	/**
+	 * @return the most recent token, or null if the history is empty.
+	 */
+	public Parcelable peek() {
+		return mSize > 0 ? mTokens[(mHead - 1 + mTokens.length) % mTokens.length] : null;
+	}
+
+	/**
+	 * Remove and return the most recent token.
+	 *
+	 * @return the most recent token, or null if the history is empty.
+	 */
+	public Parcelable pop() {
+		if(mSize == 0)
+			return null;
+
+		mHead = (mHead - 1 + mTokens.length) % mTokens.length;
+		final Parcelable token = mTokens[mHead];
+		mTokens[mHead] = null;
+		mSize--;
+		return token;
+	}
+
+	/**
+	 * @return whether the token is in the history, compared by identity.
+	 */
+	boolean contains(final Parcelable token) {
+		for(int i = 0; i < mTokens.length; i++) {
+			if(mTokens[i] == token && token != null)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove a token wherever it is in the history, keeping the order of the others.
+	 *
+	 * @return whether the token was in the history.
+	 */
+	boolean remove(final Parcelable token) {
+		final int capacity = mTokens.length;
+		for(int i = 1; i <= mSize; i++) {
+			int index = (mHead - i + capacity) % capacity;
+			if(mTokens[index] != token)
+				continue;
+
+			// Shift the more recent tokens down over it.
+			final int newest = (mHead - 1 + capacity) % capacity;
+			while(index != newest) {
+				final int next = (index + 1) % capacity;
+				mTokens[index] = mTokens[next];
+				index = next;
+			}
+			mHead = newest;
+			mTokens[mHead] = null;
+			mSize--;
+			return true;
+		}
+		return false;
+	}
+
+	public void clear() {
+		while(mSize > 0)
+			pop();
+		mHead = 0;
+	}
+
+	/**
+	 * @return the tokens, oldest first.
+	 */
+	Parcelable[] toArray() {
+		final Parcelable[] tokens = new Parcelable[mSize];
+		final int tail = (mHead - mSize + mTokens.length) % mTokens.length;
+		for(int i = 0; i < mSize; i++)
+			tokens[i] = mTokens[(tail + i) % mTokens.length];
+		return tokens;
+	}
+}
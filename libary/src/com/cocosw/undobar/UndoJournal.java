@@ -0,0 +1,400 @@
+package com.cocosw.undobar;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcelable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Durable, append-only journal of pending undo tokens, so they can be recovered after the process is killed
+ * while their bar is visible.
+ *
+ * Every token shown appends a record (token, style, deadline) and every token undone or committed appends a
+ * resolution. Records are written by a background thread through a buffered file channel, and the file is
+ * compacted once resolved records dominate it. On the next launch, {@link #recover(RecoveryListener)} hands back the
+ * unresolved tokens so the app can show them again or commit them.
+ *
+ * Install it with {@link UndoBarController#setJournal(UndoJournal)}, usually in Application's onCreate().
+ */
+public final class UndoJournal {
+	private static final String TAG = "UndoJournal";
+	private static final String FILE_NAME = "undobar.journal";
+
+	private static final byte RECORD_SHOW = 1;
+	private static final byte RECORD_RESOLVE = 2;
+	// Compact once this many resolutions were appended, and they outnumber the pending tokens.
+	private static final int COMPACT_THRESHOLD = 128;
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * A token whose bar was still pending when the journal was last written.
+	 */
+	public static final class Pending {
+		public final Parcelable token;
+		public final UndoBarStyle style;
+		/** Wall clock time the bar would have hidden at, or 0 if it never hides by itself. */
+		public final long deadline;
+
+		Pending(final Parcelable token, final UndoBarStyle style, final long deadline) {
+			this.token = token;
+			this.style = style;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * @return whether the undo window is over, so the token should be committed rather than shown again.
+		 */
+		public boolean isExpired() {
+			return deadline > 0 && deadline <= System.currentTimeMillis();
+		}
+	}
+
+	public interface RecoveryListener {
+		/**
+		 * Called on the main thread with the tokens left pending by the previous process.
+		 * Showing one again keeps it in the journal; anything else must be {@link #resolve(Parcelable) resolved}.
+		 */
+		void onRecover(Pending[] pending);
+	}
+
+	private interface Task {
+		void run() throws IOException;
+	}
+
+	private final File mFile;
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+	// Main thread state.
+	private final IdentityHashMap<Parcelable, Long> mIds = new IdentityHashMap<Parcelable, Long>();
+	private long mNextId;
+
+	// Writer thread state.
+	private final ExecutorService mWriter = UndoTokens.newDiskExecutor("UndoBar journal");
+	private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final HashSet<Long> mPendingIds = new HashSet<Long>();
+	private FileChannel mChannel;
+	private int mResolvedSinceCompaction = 0;
+	private final Object mQueueLock = new Object();
+	private int mQueuedWrites = 0;
+
+	public UndoJournal(final Context context) {
+		mFile = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+		mNextId = UndoTokens.firstId();
+	}
+
+	/**
+	 * Read the tokens left pending by the previous process, on the journal's thread.
+	 * Call it at startup, before showing bars: compacting the journal drops records nobody recovered.
+	 */
+	public void recover(final RecoveryListener listener) {
+		execute(new Task() {
+			@Override
+			public void run() throws IOException {
+				final ArrayList<Long> ids = new ArrayList<Long>();
+				final ArrayList<Pending> pending = new ArrayList<Pending>();
+				read(ids, pending);
+				mMainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						// Showing a recovered token again must not journal it twice.
+						for(int i = 0; i < ids.size(); i++)
+							mIds.put(pending.get(i).token, ids.get(i));
+						listener.onRecover(pending.toArray(new Pending[pending.size()]));
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Journal a token shown in an undo bar. Main thread only.
+	 *
+	 * @param deadline Wall clock time the bar hides at, or 0 if it never hides by itself.
+	 */
+	void record(final Parcelable token, final UndoBarStyle style, final long deadline) {
+		if(mIds.containsKey(token))
+			return;
+
+		final long id = mNextId++;
+		mIds.put(token, id);
+		execute(new Task() {
+			@Override
+			public void run() throws IOException {
+				writeShow(id, token, style, deadline);
+			}
+		});
+	}
+
+	/**
+	 * Mark a token as undone or committed, so it is not recovered. Main thread only.
+	 */
+	public void resolve(final Parcelable token) {
+		final Long id = mIds.remove(token);
+		if(id == null)
+			return;
+
+		execute(new Task() {
+			@Override
+			public void run() throws IOException {
+				writeResolve(id);
+			}
+		});
+	}
+
+	/**
+	 * Run a task on the writer thread, flushing the buffer once no other task is waiting.
+	 */
+	private void execute(final Task task) {
+		synchronized(mQueueLock) {
+			mQueuedWrites++;
+		}
+		mWriter.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (IOException e) {
+					Log.w(TAG, "Could not write undo journal", e);
+				}
+
+				final boolean last;
+				synchronized(mQueueLock) {
+					last = --mQueuedWrites == 0;
+				}
+				if(last)
+					flush();
+			}
+		});
+	}
+
+	/*
+	 * Writer thread methods.
+	 */
+
+	private void writeShow(final long id, final Parcelable token, final UndoBarStyle style, final long deadline)
+			throws IOException {
+		final byte[] data = UndoTokens.marshall(token);
+		if(data == null)
+			return;
+
+		final ByteBuffer record = reserve(1 + 8 + 8 + 4 * 5 + 8 + 4 + data.length);
+		record.put(RECORD_SHOW);
+		record.putLong(id);
+		record.putLong(deadline);
+		record.putInt(style != null ? style.iconRes : UndoBarStyle.IGNORE_RESOURCE);
+		record.putInt(style != null ? style.titleRes : UndoBarStyle.IGNORE_RESOURCE);
+		record.putInt(style != null ? style.buttonBgRes : UndoBarStyle.IGNORE_RESOURCE);
+		record.putInt(style != null ? style.bgRes : UndoBarStyle.IGNORE_RESOURCE);
+		record.putLong(style != null ? style.duration : UndoBarStyle.DEFAULT_DURATION);
+		record.putInt(style != null ? style.priority : UndoBarStyle.PRIORITY_NORMAL);
+		record.putInt(data.length);
+		record.put(data);
+		commit(record);
+		mPendingIds.add(id);
+	}
+
+	private void writeResolve(final long id) throws IOException {
+		if(!mPendingIds.remove(id))
+			return;
+
+		final ByteBuffer record = reserve(1 + 8);
+		record.put(RECORD_RESOLVE);
+		record.putLong(id);
+		commit(record);
+
+		if(++mResolvedSinceCompaction >= COMPACT_THRESHOLD && mResolvedSinceCompaction > mPendingIds.size())
+			compact();
+	}
+
+	/**
+	 * @return the buffer to write a record of the given size into, flushed first if it does not fit.
+	 */
+	private ByteBuffer reserve(final int size) throws IOException {
+		if(size > mBuffer.capacity()) {
+			drain();
+			return ByteBuffer.allocate(size);
+		}
+		if(size > mBuffer.remaining())
+			drain();
+		return mBuffer;
+	}
+
+	private void commit(final ByteBuffer record) throws IOException {
+		// Records larger than the buffer are written on their own.
+		if(record != mBuffer) {
+			record.flip();
+			write(record);
+		}
+	}
+
+	private void drain() throws IOException {
+		mBuffer.flip();
+		write(mBuffer);
+		mBuffer.clear();
+	}
+
+	private void write(final ByteBuffer buffer) throws IOException {
+		final FileChannel channel = getChannel();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private void flush() {
+		try {
+			drain();
+			if(mChannel != null)
+				mChannel.force(false);
+		} catch (IOException e) {
+			Log.w(TAG, "Could not flush undo journal", e);
+			mBuffer.clear();
+		}
+	}
+
+	private FileChannel getChannel() throws IOException {
+		if(mChannel == null)
+			mChannel = new FileOutputStream(mFile, true).getChannel();
+		return mChannel;
+	}
+
+	private void closeChannel() {
+		if(mChannel != null) {
+			try {
+				mChannel.close();
+			} catch (IOException ignored) {
+			}
+			mChannel = null;
+		}
+	}
+
+	/**
+	 * Rewrite the journal with the pending records only.
+	 */
+	private void compact() throws IOException {
+		drain();
+		closeChannel();
+
+		final ByteBuffer journal = readFile(mFile);
+		final File compacted = new File(mFile.getPath() + ".tmp");
+		final FileChannel out = new FileOutputStream(compacted).getChannel();
+		try {
+			while(journal.remaining() > 0) {
+				final int start = journal.position();
+				if(!skipRecord(journal))
+					break;
+				final int end = journal.position();
+				if(journal.get(start) == RECORD_SHOW && mPendingIds.contains(journal.getLong(start + 1))) {
+					final ByteBuffer record = journal.duplicate();
+					record.position(start);
+					record.limit(end);
+					while(record.hasRemaining())
+						out.write(record);
+				}
+			}
+			out.force(false);
+		} finally {
+			out.close();
+		}
+
+		if(!compacted.renameTo(mFile))
+			throw new IOException("Could not replace the undo journal.");
+		mResolvedSinceCompaction = 0;
+	}
+
+	/**
+	 * Advance past a record.
+	 *
+	 * @return false if the record is truncated, e.g. the process died while writing it.
+	 */
+	private static boolean skipRecord(final ByteBuffer journal) {
+		final int start = journal.position();
+		if(journal.remaining() < 1 + 8)
+			return false;
+
+		final byte type = journal.get(start);
+		if(type == RECORD_RESOLVE) {
+			journal.position(start + 1 + 8);
+			return true;
+		}
+
+		final int header = 1 + 8 + 8 + 4 * 5 + 8;
+		if(type != RECORD_SHOW || journal.remaining() < header + 4)
+			return false;
+		final int length = journal.getInt(start + header);
+		if(length < 0 || journal.remaining() < header + 4 + length)
+			return false;
+		journal.position(start + header + 4 + length);
+		return true;
+	}
+
+	private void read(final ArrayList<Long> ids, final ArrayList<Pending> pending) throws IOException {
+		drain();
+		closeChannel();
+		if(!mFile.exists())
+			return;
+		final ByteBuffer journal = readFile(mFile);
+
+		// Collect resolutions first, then the pending records in order.
+		final HashSet<Long> resolved = new HashSet<Long>();
+		final int start = journal.position();
+		while(journal.remaining() > 0) {
+			final int position = journal.position();
+			if(!skipRecord(journal))
+				break;
+			if(journal.get(position) == RECORD_RESOLVE)
+				resolved.add(journal.getLong(position + 1));
+		}
+
+		final int end = journal.position();
+		journal.position(start);
+		while(journal.position() < end) {
+			final byte type = journal.get();
+			final long id = journal.getLong();
+			if(type == RECORD_RESOLVE)
+				continue;
+
+			final long deadline = journal.getLong();
+			final UndoBarStyle style = new UndoBarStyle(journal.getInt(), journal.getInt(), journal.getInt(),
+					journal.getInt(), journal.getLong()).setPriority(journal.getInt());
+			final byte[] data = new byte[journal.getInt()];
+			journal.get(data);
+			if(resolved.contains(id))
+				continue;
+
+			final Parcelable token = UndoTokens.unmarshall(data, 0, data.length);
+			if(token != null) {
+				ids.add(id);
+				pending.add(new Pending(token, style, deadline));
+				mPendingIds.add(id);
+			}
+		}
+
+		// Start over with the pending records only, which also drops a record truncated by the process dying.
+		compact();
+	}
+
+	private static ByteBuffer readFile(final File file) throws IOException {
+		final FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			final ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+			while(buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// Keep reading.
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package com.cocosw.undobar;
+
+import android.content.Context;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Keeps undo tokens out of the controllers' saved state.
+ *
+ * Tokens live in a process-wide map and saved state only carries their id, so saving and restoring costs the same
+ * whatever the token size. Each token is also spilled to a file on a background thread, to survive process death.
+ * The spill files of previous processes are read back on that thread as the store is created, and the ones nothing
+ * can restore anymore are deleted.
+ * Install it with {@link UndoBarController#setTokenStore(UndoTokenStore)}, usually in Application's onCreate().
+ */
+public final class UndoTokenStore {
+	private static final String TAG = "UndoTokenStore";
+	private static final String DIRECTORY = "undobar_tokens";
+	// Spill files of previous processes older than this are deleted instead of read back.
+	private static final long STALE_AGE = 24 * 60 * 60 * 1000L;
+
+	private final File mDirectory;
+	private final Object mLock = new Object();
+	private final HashMap<Long, Parcelable> mTokens = new HashMap<Long, Parcelable>();
+	private final IdentityHashMap<Parcelable, Long> mIds = new IdentityHashMap<Parcelable, Long>();
+	private long mNextId;
+	// Ids below it were spilled by a previous process.
+	private final long mFirstId;
+
+	private final ExecutorService mSpillExecutor = UndoTokens.newDiskExecutor("UndoBar token store");
+
+	public UndoTokenStore(final Context context) {
+		mDirectory = context.getApplicationContext().getDir(DIRECTORY, Context.MODE_PRIVATE);
+		mNextId = UndoTokens.firstId();
+		mFirstId = mNextId;
+
+		mSpillExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				recoverSpilled();
+			}
+		});
+	}
+
+	/**
+	 * Store a token, or find the id it is already stored under.
+	 */
+	long put(final Parcelable token) {
+		final long id;
+		synchronized(mLock) {
+			final Long existing = mIds.get(token);
+			if(existing != null)
+				return existing;
+
+			id = mNextId++;
+			mTokens.put(id, token);
+			mIds.put(token, id);
+		}
+
+		mSpillExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				spill(id, token);
+			}
+		});
+		return id;
+	}
+
+	/**
+	 * Get a stored token. After process death, it was usually read back from its spill file in the background
+	 * already. Only state restored while that is still running reads the file on the calling thread.
+	 */
+	Parcelable get(final long id) {
+		synchronized(mLock) {
+			final Parcelable token = mTokens.get(id);
+			if(token != null)
+				return token;
+		}
+
+		final Parcelable token = unspill(id);
+		if(token != null) {
+			synchronized(mLock) {
+				mTokens.put(id, token);
+				mIds.put(token, id);
+			}
+		}
+		return token;
+	}
+
+	/**
+	 * Forget a token that was undone or committed, and delete its spill file.
+	 */
+	void release(final Parcelable token) {
+		final Long id;
+		synchronized(mLock) {
+			id = mIds.remove(token);
+			if(id == null)
+				return;
+			mTokens.remove(id);
+		}
+
+		mSpillExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				getFile(id).delete();
+			}
+		});
+	}
+
+	/**
+	 * Read back the tokens spilled by previous processes, so restoring them does not read the disk, and delete the
+	 * spill files nothing will restore: written before the device booted, or too long ago.
+	 */
+	private void recoverSpilled() {
+		final File[] files = mDirectory.listFiles();
+		if(files == null)
+			return;
+
+		final long now = System.currentTimeMillis();
+		final long bootTime = now - SystemClock.elapsedRealtime();
+		for(final File file : files) {
+			final long id;
+			try {
+				id = Long.parseLong(file.getName(), 16);
+			} catch (NumberFormatException e) {
+				file.delete();
+				continue;
+			}
+			if(id >= mFirstId)
+				continue;
+
+			final long modified = file.lastModified();
+			if(modified < bootTime || now - modified > STALE_AGE) {
+				file.delete();
+				continue;
+			}
+
+			final Parcelable token = unspill(id);
+			if(token == null) {
+				// Unreadable, so it can't be restored either.
+				file.delete();
+				continue;
+			}
+			synchronized(mLock) {
+				// Unless a restore got to it first.
+				if(!mTokens.containsKey(id)) {
+					mTokens.put(id, token);
+					mIds.put(token, id);
+				}
+			}
+		}
+	}
+
+	private File getFile(final long id) {
+		return new File(mDirectory, Long.toHexString(id));
+	}
+
+	private void spill(final long id, final Parcelable token) {
+		synchronized(mLock) {
+			// Released before we got to it.
+			if(!mTokens.containsKey(id))
+				return;
+		}
+
+		final byte[] data = UndoTokens.marshall(token);
+		if(data == null)
+			return;
+
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(getFile(id));
+			out.write(data);
+		} catch (IOException e) {
+			Log.w(TAG, "Could not spill undo token " + id, e);
+		} finally {
+			close(out);
+		}
+	}
+
+	private Parcelable unspill(final long id) {
+		final File file = getFile(id);
+		if(!file.exists())
+			return null;
+
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			final byte[] data = new byte[(int)file.length()];
+			int read = 0;
+			while(read < data.length) {
+				final int count = in.read(data, read, data.length - read);
+				if(count < 0)
+					throw new IOException("Truncated spill file.");
+				read += count;
+			}
+
+			return UndoTokens.unmarshall(data, 0, data.length);
+		} catch (IOException e) {
+			Log.w(TAG, "Could not read undo token " + id, e);
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	private static void close(final Closeable closeable) {
+		if(closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package com.cocosw.undobar;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Marshalling of undo tokens, inline in a Parcel or as bytes on disk, and the background threads writing them.
+ * Shared by the saved state, {@link UndoTokenStore} and {@link UndoJournal}.
+ */
+final class UndoTokens {
+	private static final String TAG = "UndoTokens";
+
+	private UndoTokens() {
+	}
+
+	/**
+	 * @return the first id for tokens written to disk by this process. Ids must not collide with the ones a
+	 * previous process left on disk, so they start from the current time.
+	 */
+	static long firstId() {
+		return System.currentTimeMillis() << 16;
+	}
+
+	/**
+	 * Write a token along with its class name, so it can be read back without knowing its class.
+	 */
+	static void write(final Parcel dest, final Parcelable token, final int flags) {
+		dest.writeString(token.getClass().getName());
+		dest.writeParcelable(token, flags);
+	}
+
+	static Parcelable read(final Parcel source) {
+		try {
+			return source.readParcelable(Class.forName(source.readString()).getClassLoader());
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Undo token class not found.");
+		}
+	}
+
+	/**
+	 * @return the token as bytes, or null if it can't be written to disk.
+	 */
+	static byte[] marshall(final Parcelable token) {
+		final Parcel parcel = Parcel.obtain();
+		try {
+			write(parcel, token, 0);
+			return parcel.marshall();
+		} catch (RuntimeException e) {
+			// Tokens holding binders or file descriptors can't be written to disk, keep them in memory only.
+			Log.w(TAG, "Could not marshall undo token", e);
+			return null;
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	/**
+	 * @return the token read back from bytes, or null if it can't be, e.g. its class is gone.
+	 */
+	static Parcelable unmarshall(final byte[] data, final int offset, final int length) {
+		final Parcel parcel = Parcel.obtain();
+		try {
+			parcel.unmarshall(data, offset, length);
+			parcel.setDataPosition(0);
+			return read(parcel);
+		} catch (RuntimeException e) {
+			Log.w(TAG, "Could not unmarshall undo token", e);
+			return null;
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	/**
+	 * @return a single background priority, daemon thread executor for disk writes.
+	 */
+	static ExecutorService newDiskExecutor(final String name) {
+		return Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, name) {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						super.run();
+					}
+				};
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}